@@ -0,0 +1,104 @@
+package tech.sourced.siva;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a {@link FilteredIndex} from entries already parsed, block by block,
+ * and merging the blocks appended to a siva file with the index read before they were
+ * appended, as {@link IndexReader#refresh(Index)} does. The entries are reused by every
+ * invocation, so their names are only decoded once and the cost measured is the one of
+ * the maps of the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = IndexReadBenchmark.ITERATIONS)
+@Measurement(iterations = IndexReadBenchmark.ITERATIONS)
+@Fork(1)
+public class FilteredIndexBenchmark {
+    private static final int APPENDED_RATIO = 10;
+
+    @Param({"1000", "1000000"})
+    private int entries;
+
+    @Param({"1", "100", "10000"})
+    private int blocks;
+
+    private final List<List<IndexEntry>> parsedBlocks = new ArrayList<>();
+    private int appendedBlocks;
+    private FilteredIndex older;
+
+    /**
+     * Parses all the blocks of the siva file, and builds the index of the oldest ones.
+     *
+     * @throws IOException   If the file can not be generated or read.
+     * @throws SivaException If the file can not be generated or read.
+     */
+    @Setup
+    public final void setup() throws IOException, SivaException {
+        try (SivaReader reader = new SivaReader(SyntheticArchives.get(entries, blocks, 1))) {
+            reader.getIndex().visit(new IndexVisitor() {
+                @Override
+                public boolean startIndexBlock(final long blockStart, final long entryCount) {
+                    parsedBlocks.add(new ArrayList<>((int) entryCount));
+                    return true;
+                }
+
+                @Override
+                public boolean visitEntry(final IndexEntry entry) {
+                    parsedBlocks.get(parsedBlocks.size() - 1).add(entry);
+                    return true;
+                }
+            });
+        }
+
+        appendedBlocks = Math.max(1, parsedBlocks.size() / APPENDED_RATIO);
+        older = build(appendedBlocks, parsedBlocks.size());
+    }
+
+    /**
+     * @return the index with all the blocks.
+     */
+    @Benchmark
+    public final FilteredIndex build() {
+        return build(0, parsedBlocks.size());
+    }
+
+    /**
+     * @return the index with the newest blocks merged with the older index.
+     */
+    @Benchmark
+    public final FilteredIndex mergeOlder() {
+        FilteredIndex index = build(0, appendedBlocks);
+        index.mergeOlder(older);
+        return index;
+    }
+
+    private FilteredIndex build(final int from, final int to) {
+        FilteredIndex index = new FilteredIndex();
+        for (List<IndexEntry> block : parsedBlocks.subList(from, to)) {
+            for (IndexEntry entry : block) {
+                index.add(entry);
+            }
+
+            index.endIndexBlock();
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,128 @@
+package tech.sourced.siva;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of reading the content of random entries, from a single thread
+ * and from several threads sharing the same reader, with and without checking the CRC32
+ * of the content.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = IndexReadBenchmark.ITERATIONS)
+@Measurement(iterations = IndexReadBenchmark.ITERATIONS)
+@Fork(1)
+public class GetEntryBenchmark {
+    private static final int ENTRIES = 100;
+    private static final int BLOCKS = 10;
+    private static final int THREADS = 4;
+    private static final int BUFFER_SIZE = 8192;
+
+    @Param({"100", "1000000"})
+    private int bodySize;
+
+    @Param({"false", "true"})
+    private boolean memoryMapped;
+
+    private SivaReader reader;
+    private List<IndexEntry> entries;
+
+    /**
+     * Opens the siva file and reads its index.
+     *
+     * @throws IOException   If the file can not be generated or read.
+     * @throws SivaException If the file can not be generated or read.
+     */
+    @Setup
+    public final void setup() throws IOException, SivaException {
+        reader = new SivaReader(SyntheticArchives.get(ENTRIES, BLOCKS, bodySize),
+                SivaReaderOptions.DEFAULT.withMemoryMapped(memoryMapped));
+        entries = reader.getIndex().getFilteredIndex().getEntries();
+    }
+
+    /**
+     * @throws SivaException If the file can not be closed.
+     */
+    @TearDown
+    public final void tearDown() throws SivaException {
+        reader.close();
+    }
+
+    /**
+     * Buffer of each thread to read the content.
+     */
+    @State(Scope.Thread)
+    public static class Buffer {
+        private final byte[] bytes = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * @param buffer buffer of the thread.
+     * @return number of bytes read.
+     * @throws IOException   If the entry can not be read.
+     * @throws SivaException If the entry can not be read.
+     */
+    @Benchmark
+    @Threads(1)
+    public final long getEntry(final Buffer buffer) throws IOException, SivaException {
+        return read(reader.getEntry(randomEntry()), buffer.bytes);
+    }
+
+    /**
+     * @param buffer buffer of the thread.
+     * @return number of bytes read.
+     * @throws IOException   If the entry can not be read.
+     * @throws SivaException If the entry can not be read.
+     */
+    @Benchmark
+    @Threads(THREADS)
+    public final long getEntryConcurrently(final Buffer buffer) throws IOException, SivaException {
+        return read(reader.getEntry(randomEntry()), buffer.bytes);
+    }
+
+    /**
+     * @param buffer buffer of the thread.
+     * @return number of bytes read.
+     * @throws IOException   If the entry can not be read or its CRC32 does not match.
+     * @throws SivaException If the entry can not be read.
+     */
+    @Benchmark
+    @Threads(1)
+    public final long getVerifiedEntry(final Buffer buffer) throws IOException, SivaException {
+        return read(reader.getVerifiedEntry(randomEntry()), buffer.bytes);
+    }
+
+    private IndexEntry randomEntry() {
+        return entries.get(ThreadLocalRandom.current().nextInt(entries.size()));
+    }
+
+    private static long read(final InputStream is, final byte[] buf) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = is.read(buf, 0, buf.length)) > 0) {
+            total += n;
+        }
+
+        is.close();
+        return total;
+    }
+}
@@ -0,0 +1,93 @@
+package tech.sourced.siva;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookups by name and the glob patterns on each kind of index, with a
+ * pattern limited by a literal prefix and another one checking every name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = IndexReadBenchmark.ITERATIONS)
+@Measurement(iterations = IndexReadBenchmark.ITERATIONS)
+@Fork(1)
+public class GlobBenchmark {
+    @Param({"1000", "1000000"})
+    private int entries;
+
+    @Param({"filtered", "complete", "compact"})
+    private String kind;
+
+    private Index index;
+    private String[] names;
+
+    /**
+     * Reads the index, runs a first glob so the entries sorted by name are ready, and
+     * builds the names to look up.
+     *
+     * @throws IOException   If the file can not be generated or read.
+     * @throws SivaException If the file can not be generated or read.
+     */
+    @Setup
+    public final void setup() throws IOException, SivaException {
+        try (SivaReader reader = new SivaReader(SyntheticArchives.get(entries, 1, 1))) {
+            IndexReader indexReader = reader.getIndex();
+            switch (kind) {
+                case "complete":
+                    index = indexReader.getCompleteIndex();
+                    break;
+                case "compact":
+                    index = indexReader.getCompactIndex();
+                    break;
+                default:
+                    index = indexReader.getFilteredIndex();
+            }
+        }
+
+        index.glob("objects/*/none");
+        names = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            names[i] = SyntheticArchives.entryName(i);
+        }
+    }
+
+    /**
+     * @return the entry found.
+     */
+    @Benchmark
+    public final IndexEntry getEntry() {
+        return index.getEntry(names[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    /**
+     * @return the entries of a directory.
+     */
+    @Benchmark
+    public final List<IndexEntry> prefixGlob() {
+        return index.glob("objects/2a/*");
+    }
+
+    /**
+     * @return the entries matching in any directory.
+     */
+    @Benchmark
+    public final List<IndexEntry> wildcardGlob() {
+        return index.glob("**/entry-*7");
+    }
+}
@@ -0,0 +1,156 @@
+package tech.sourced.siva;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each stage of reading the index of a siva file separately: walking the
+ * footers of the blocks, checking the CRC32 of the indexes already in memory, and parsing
+ * their entries; and the whole read of each kind of index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = IndexReadBenchmark.ITERATIONS)
+@Measurement(iterations = IndexReadBenchmark.ITERATIONS)
+@Fork(1)
+public class IndexReadBenchmark {
+    /**
+     * Number of warmup and measurement iterations of all the benchmarks.
+     */
+    static final int ITERATIONS = 5;
+
+    private static final int SIGNATURE_AND_VERSION = IndexReader.INDEX_SIGNATURE.length + 1;
+
+    @Param({"1", "1000", "1000000"})
+    private int entries;
+
+    @Param({"1", "100", "10000"})
+    private int blocks;
+
+    private SivaReader reader;
+    private IndexReader indexReader;
+    private long length;
+    private final List<IndexFooter> footers = new ArrayList<>();
+    private final List<Long> blockEnds = new ArrayList<>();
+    private final List<ByteBuffer> indexes = new ArrayList<>();
+
+    /**
+     * Opens the siva file and keeps the footers and indexes of its blocks in memory.
+     *
+     * @throws IOException   If the file can not be generated or read.
+     * @throws SivaException If the file can not be generated or read.
+     */
+    @Setup
+    public final void setup() throws IOException, SivaException {
+        reader = new SivaReader(SyntheticArchives.get(entries, blocks, 1));
+        indexReader = reader.getIndex();
+        length = reader.getChannel().size();
+
+        long endOfBlock = length;
+        while (endOfBlock > 0) {
+            IndexFooter footer = indexReader.readFooter(endOfBlock);
+            long startOfIndex = endOfBlock - IndexReader.INDEX_FOOTER_SIZE
+                    - footer.getIndexSize();
+            footers.add(footer);
+            blockEnds.add(endOfBlock);
+            indexes.add(indexReader.readIndexBlock(footer, startOfIndex));
+            endOfBlock -= footer.getBlockSize();
+        }
+    }
+
+    /**
+     * @throws SivaException If the file can not be closed.
+     */
+    @TearDown
+    public final void tearDown() throws SivaException {
+        reader.close();
+    }
+
+    /**
+     * @return number of blocks found.
+     * @throws IOException   If a footer can not be read.
+     * @throws SivaException If a footer is not valid.
+     */
+    @Benchmark
+    public final int walkFooters() throws IOException, SivaException {
+        int count = 0;
+        long endOfBlock = length;
+        while (endOfBlock > 0) {
+            endOfBlock -= indexReader.readFooter(endOfBlock).getBlockSize();
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @throws SivaException If some index does not match its CRC32.
+     */
+    @Benchmark
+    public final void checkIndexCrc() throws SivaException {
+        for (int i = 0; i < footers.size(); i++) {
+            indexReader.checkIndexCrc(footers.get(i), indexes.get(i));
+        }
+    }
+
+    /**
+     * @param bh blackhole consuming the entries.
+     * @throws SivaException If some entry is not valid.
+     */
+    @Benchmark
+    public final void parseEntries(final Blackhole bh) throws SivaException {
+        for (int i = 0; i < footers.size(); i++) {
+            IndexFooter footer = footers.get(i);
+            ByteBuffer buf = indexes.get(i).duplicate();
+            buf.position(buf.position() + SIGNATURE_AND_VERSION);
+            for (long j = 0; j < footer.getEntryCount(); j++) {
+                bh.consume(indexReader.readEntry(buf, footer, blockEnds.get(i)));
+            }
+        }
+    }
+
+    /**
+     * @return the index.
+     * @throws SivaException If the index can not be read.
+     */
+    @Benchmark
+    public final Index readFilteredIndex() throws SivaException {
+        return reader.getIndex().getFilteredIndex();
+    }
+
+    /**
+     * @return the index.
+     * @throws SivaException If the index can not be read.
+     */
+    @Benchmark
+    public final Index readCompleteIndex() throws SivaException {
+        return reader.getIndex().getCompleteIndex();
+    }
+
+    /**
+     * @return the index.
+     * @throws SivaException If the index can not be read.
+     */
+    @Benchmark
+    public final Index readCompactIndex() throws SivaException {
+        return reader.getIndex().getCompactIndex();
+    }
+}
@@ -0,0 +1,94 @@
+package tech.sourced.siva;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * SyntheticArchives generates the siva files used by the benchmarks. Each file is written
+ * once in a directory under {@code java.io.tmpdir} and reused by the next forks and runs,
+ * since writing the biggest ones takes longer than running their benchmarks.
+ */
+final class SyntheticArchives {
+    private static final Path DIRECTORY =
+            Paths.get(System.getProperty("java.io.tmpdir"), "siva-benchmarks");
+    private static final Set<PosixFilePermission> MODE =
+            PosixFilePermissions.fromString("rw-r--r--");
+    private static final FileTime MODIFICATION_TIME = FileTime.fromMillis(1502116728928L);
+    private static final int NAME_DIRECTORIES = 256;
+    private static final int CONTENT_STEP = 31;
+
+    private SyntheticArchives() {
+    }
+
+    /**
+     * Returns a siva file with the given number of entries spread evenly in the given
+     * number of blocks, so the newest block has the last entries. Every entry has a
+     * different name, see {@link #entryName(int)}.
+     *
+     * @param entries  number of entries.
+     * @param blocks   number of blocks, it is reduced to the number of entries if there
+     *                 are less entries than blocks.
+     * @param bodySize size of the content of each entry.
+     * @return the siva file.
+     * @throws IOException   If the file can not be written.
+     * @throws SivaException If the file can not be written.
+     */
+    static File get(final int entries, final int blocks, final int bodySize)
+            throws IOException, SivaException {
+        int blockCount = Math.max(1, Math.min(blocks, entries));
+        Path path = DIRECTORY.resolve(
+                "synthetic-" + entries + "-" + blockCount + "-" + bodySize + ".siva");
+        if (Files.exists(path)) {
+            return path.toFile();
+        }
+
+        Files.createDirectories(DIRECTORY);
+        Path tmp = Files.createTempFile(DIRECTORY, "synthetic", ".tmp");
+        try {
+            write(tmp.toFile(), entries, blockCount, bodySize);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        return path.toFile();
+    }
+
+    /**
+     * @param entry number of the entry.
+     * @return name of the entry, spread in directories like the objects of a git
+     * repository.
+     */
+    static String entryName(final int entry) {
+        return String.format("objects/%02x/entry-%08d", entry % NAME_DIRECTORIES, entry);
+    }
+
+    private static void write(final File file, final int entries, final int blocks,
+                              final int bodySize) throws SivaException {
+        byte[] content = new byte[bodySize];
+        try (SivaWriter writer = new SivaWriter(file)) {
+            int entry = 0;
+            for (int block = 0; block < blocks; block++) {
+                int end = (int) ((long) entries * (block + 1) / blocks);
+                for (; entry < end; entry++) {
+                    for (int i = 0; i < content.length; i++) {
+                        content[i] = (byte) (entry * CONTENT_STEP + i);
+                    }
+
+                    writer.writeHeader(new Header(entryName(entry), MODE, MODIFICATION_TIME));
+                    writer.write(content);
+                }
+
+                writer.flush();
+            }
+        }
+    }
+}
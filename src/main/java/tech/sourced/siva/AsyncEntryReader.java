@@ -0,0 +1,191 @@
+package tech.sourced.siva;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * AsyncEntryReader reads the content of entries with an {@link AsynchronousFileChannel},
+ * completing futures instead of blocking the calling thread. Compressed entries are
+ * decompressed by the thread completing the read.
+ */
+final class AsyncEntryReader {
+    private static final long MAX_GAP = 16 * 1024;
+    private static final long MAX_RUN_SIZE = 16 * 1024 * 1024;
+
+    private final AsynchronousFileChannel channel;
+    private final String sivaFileName;
+
+    /**
+     * @param path         path of the siva file.
+     * @param sivaFileName siva file name.
+     * @throws IOException If the file can not be opened.
+     */
+    AsyncEntryReader(final Path path, final String sivaFileName) throws IOException {
+        this.channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        this.sivaFileName = sivaFileName;
+    }
+
+    /**
+     * Reads the content of an entry in a new buffer.
+     *
+     * @param entry entry to read.
+     * @return a future completed with the content, from position 0 to the limit.
+     */
+    CompletableFuture<ByteBuffer> read(final IndexEntry entry) {
+        if (entry.getSize() > MappedRegions.REGION_SIZE) {
+            return failed(new SivaException(sivaFileName, "Entry " + entry.getName()
+                    + " is too big to fit in a buffer, use getEntry instead."));
+        }
+
+        ByteBuffer stored = ByteBuffer.allocate((int) entry.getSize());
+        return this.readFully(stored, entry.getAbsStart()).thenApply(buf -> {
+            buf.flip();
+            if (entry.isCompressed()) {
+                return this.inflate(entry, buf);
+            }
+
+            return buf;
+        });
+    }
+
+    /**
+     * Reads the content of an entry in the given buffer, from its position.
+     *
+     * @param entry entry to read.
+     * @param dst   buffer with at least the size of the entry remaining, or of its
+     *              uncompressed content if it is compressed.
+     * @return a future completed with the given buffer, with its position after the
+     * content of the entry, or failed with a {@link SivaException} if the buffer is too
+     * small. The size of compressed entries is only known once they have been read, so
+     * the buffer is always checked by the future.
+     */
+    CompletableFuture<ByteBuffer> read(final IndexEntry entry, final ByteBuffer dst) {
+        if (entry.isCompressed()) {
+            return this.read(entry).thenApply(content -> {
+                if (dst.remaining() < content.remaining()) {
+                    throw new CompletionException(
+                            this.bufferTooSmall(entry, dst, content.remaining()));
+                }
+
+                return dst.put(content);
+            });
+        }
+
+        if (dst.remaining() < entry.getSize()) {
+            return failed(this.bufferTooSmall(entry, dst, entry.getSize()));
+        }
+
+        ByteBuffer range = dst.duplicate();
+        range.limit(range.position() + (int) entry.getSize());
+        return this.readFully(range, entry.getAbsStart()).thenApply(buf -> {
+            dst.position(buf.position());
+            return dst;
+        });
+    }
+
+    /**
+     * Reads the content of many entries, merging the reads of the entries stored close to
+     * each other.
+     *
+     * @param entries entries to read.
+     * @return a future completed with the contents of the entries, in the same order as
+     * the entries.
+     */
+    CompletableFuture<List<ByteBuffer>> readAll(final List<IndexEntry> entries) {
+        ByteBuffer[] result = new ByteBuffer[entries.size()];
+        List<CompletableFuture<?>> reads = new ArrayList<>();
+        for (EntryRuns.Run run : EntryRuns.of(entries, MAX_GAP, MAX_RUN_SIZE)) {
+            if (run.getSize() > MappedRegions.REGION_SIZE) {
+                IndexEntry entry = entries.get(run.getMembers().get(0));
+                return failed(new SivaException(sivaFileName, "Entry " + entry.getName()
+                        + " is too big to fit in a buffer, use getEntry instead."));
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((int) run.getSize());
+            reads.add(this.readFully(buf, run.getStart()).thenAccept(b -> {
+                for (int i : run.getMembers()) {
+                    IndexEntry entry = entries.get(i);
+                    ByteBuffer content = b.duplicate();
+                    content.position((int) (entry.getAbsStart() - run.getStart()));
+                    content.limit(content.position() + (int) entry.getSize());
+                    if (entry.isCompressed()) {
+                        result[i] = this.inflate(entry, content);
+                    } else {
+                        result[i] = content.slice();
+                    }
+                }
+            }));
+        }
+
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> Arrays.asList(result));
+    }
+
+    /**
+     * Closes the channel.
+     *
+     * @throws IOException If the channel can not be closed.
+     */
+    void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * @throws CompletionException with a {@link SivaException} as cause if the content
+     *                             can not be decompressed.
+     */
+    private ByteBuffer inflate(final IndexEntry entry, final ByteBuffer stored) {
+        try {
+            return EntryCompression.inflate(stored);
+        } catch (IOException e) {
+            throw new CompletionException(new SivaException(sivaFileName,
+                    "Error decompressing index entry " + entry.getName() + ".", e));
+        }
+    }
+
+    private SivaException bufferTooSmall(final IndexEntry entry, final ByteBuffer dst,
+                                         final long size) {
+        return new SivaException(sivaFileName, "Buffer has " + dst.remaining()
+                + " bytes remaining, entry " + entry.getName() + " has " + size + " bytes");
+    }
+
+    private CompletableFuture<ByteBuffer> readFully(final ByteBuffer dst, final long position) {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        this.channel.read(dst, position, position, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(final Integer n, final Long pos) {
+                if (n < 0) {
+                    this.failed(new EOFException(), pos);
+                } else if (dst.hasRemaining()) {
+                    channel.read(dst, pos + n, pos + n, this);
+                } else {
+                    future.complete(dst);
+                }
+            }
+
+            @Override
+            public void failed(final Throwable e, final Long pos) {
+                future.completeExceptionally(
+                        new SivaException(sivaFileName, "Error reading index entry.", e));
+            }
+        });
+
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> failed(final Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
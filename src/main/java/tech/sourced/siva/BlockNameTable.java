@@ -0,0 +1,320 @@
+package tech.sourced.siva;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * BlockNameTable is an optional structure written in a block, between the content of its
+ * entries and its index, to find an entry by name without reading the whole index. It
+ * holds a Bloom filter of the names in the block and the offsets of the entries in the
+ * index, sorted by name, so the index can be binary searched. Readers that do not know
+ * about it never read it, since it is not referenced from the index.
+ * <p>
+ * The layout of the table is, in big endian:
+ * <pre>
+ * number of entries                        4 bytes
+ * number of hash functions                 4 bytes
+ * number of words of the Bloom filter      4 bytes
+ * Bloom filter                             8 bytes per word
+ * offsets in the index, sorted by name     4 bytes per entry
+ * length of the table before this field    4 bytes
+ * CRC32 of the table and the index CRC32   4 bytes
+ * magic "SIVANTB" and version 2            8 bytes
+ * </pre>
+ * Entries with the same name are sorted from the latest to the oldest one.
+ * <p>
+ * Since nothing in the block points to the table, the content of the last entry of a
+ * block without table could end with the same bytes. The CRC32 of the table covers
+ * the whole table and the CRC32 of the index in the footer, so a table is only found in
+ * the block it was written for, and every offset must point inside of the index. The
+ * entries found with it are checked too, their name must match and their content must be
+ * stored before the table.
+ */
+final class BlockNameTable {
+    /**
+     * Size of the fields after the offsets, which are read first to find the table.
+     */
+    static final int TRAILER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+
+    private static final byte[] MAGIC = {'S', 'I', 'V', 'A', 'N', 'T', 'B', 2};
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+    private static final int MAX_HASHES = 32;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX_1 = 0xff51afd7ed558ccdL;
+    private static final long MIX_2 = 0xc4ceb9fe1a85ec53L;
+    private static final int MIX_SHIFT = 33;
+    private static final int BYTE_MASK = 0xFF;
+    private static final long UINT32_MASK = 0xFFFFFFFFL;
+
+    private final IndexReader reader;
+    private final int count;
+    private final int hashes;
+    private final long[] bloom;
+    private final ByteBuffer offsets;
+    private final long startOfBlock;
+    private final long startOfTable;
+    private final long startOfIndex;
+    private final long indexSize;
+
+    private BlockNameTable(final IndexReader reader, final int count, final int hashes,
+                           final long[] bloom, final ByteBuffer offsets,
+                           final long startOfBlock, final long startOfTable,
+                           final long startOfIndex, final long indexSize) {
+        this.reader = reader;
+        this.count = count;
+        this.hashes = hashes;
+        this.bloom = bloom;
+        this.offsets = offsets;
+        this.startOfBlock = startOfBlock;
+        this.startOfTable = startOfTable;
+        this.startOfIndex = startOfIndex;
+        this.indexSize = indexSize;
+    }
+
+    /**
+     * Encodes the table of the entries of a block.
+     *
+     * @param entries  entries of the block, in the same order as in the index.
+     * @param offsets  offset of each entry from the start of the index.
+     * @param indexCrc CRC32 of the index of the block.
+     * @return the encoded table, trailer included.
+     */
+    static ByteBuffer encode(final List<IndexEntry> entries, final int[] offsets,
+                             final long indexCrc) {
+        int size = entries.size();
+        int words = (int) Math.max(1, ((long) size * BITS_PER_ENTRY + Long.SIZE - 1)
+                / Long.SIZE);
+        long[] bloom = new long[words];
+        for (IndexEntry entry : entries) {
+            long hash = hash(entry.getNameBytes());
+            for (int i = 0; i < HASHES; i++) {
+                int bit = bit(hash, i, words);
+                bloom[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (a, b) -> {
+            int cmp = SortedNames.compare(entries.get(a).getNameBytes(),
+                    entries.get(b).getNameBytes());
+            if (cmp != 0) {
+                return cmp;
+            }
+
+            // a later entry is newer
+            return Integer.compare(b, a);
+        });
+
+        int length = HEADER_SIZE + Long.BYTES * words + Integer.BYTES * size;
+        ByteBuffer buf = ByteBuffer.allocate(length + TRAILER_SIZE);
+        buf.putInt(size);
+        buf.putInt(HASHES);
+        buf.putInt(words);
+        for (long word : bloom) {
+            buf.putLong(word);
+        }
+
+        for (int i : order) {
+            buf.putInt(offsets[i]);
+        }
+
+        buf.putInt(length);
+        buf.putInt((int) checksum(buf.array(), length, indexCrc));
+        buf.put(MAGIC);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Reads the table of a block, if it has one.
+     *
+     * @param reader     reader of the index of the siva file.
+     * @param footer     footer of the block.
+     * @param endOfBlock absolute position of the end of the block.
+     * @return the table, or null if the block has no valid table.
+     * @throws IOException If the siva file can not be read.
+     */
+    static BlockNameTable read(final IndexReader reader, final IndexFooter footer,
+                               final long endOfBlock) throws IOException {
+        long startOfBlock = endOfBlock - footer.getBlockSize();
+        long startOfIndex = endOfBlock - IndexReader.INDEX_FOOTER_SIZE - footer.getIndexSize();
+        long available = startOfIndex - startOfBlock;
+        if (available < HEADER_SIZE + TRAILER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer trailer = reader.readRange(startOfIndex - TRAILER_SIZE, TRAILER_SIZE);
+        long length = trailer.getInt() & UINT32_MASK;
+        long crc = trailer.getInt() & UINT32_MASK;
+        byte[] magic = new byte[MAGIC.length];
+        trailer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || length < HEADER_SIZE
+                || length > available - TRAILER_SIZE || length > MappedRegions.REGION_SIZE) {
+            return null;
+        }
+
+        long start = startOfIndex - TRAILER_SIZE - length;
+        ByteBuffer header = reader.readRange(start, HEADER_SIZE);
+        long count = header.getInt() & UINT32_MASK;
+        int hashes = header.getInt();
+        long words = header.getInt() & UINT32_MASK;
+        if (count != footer.getEntryCount() || hashes <= 0 || hashes > MAX_HASHES
+                || words == 0
+                || length != HEADER_SIZE + Long.BYTES * words + Integer.BYTES * count) {
+            return null;
+        }
+
+        ByteBuffer table = reader.readRange(start, length);
+        if (checksum(table, footer.getCrc32()) != crc) {
+            return null;
+        }
+
+        long[] bloom = new long[(int) words];
+        table.position(HEADER_SIZE);
+        table.asLongBuffer().get(bloom);
+        table.position(HEADER_SIZE + Long.BYTES * (int) words);
+        ByteBuffer offsets = table.slice();
+        for (int i = 0; i < count; i++) {
+            long offset = offsets.getInt(Integer.BYTES * i) & UINT32_MASK;
+            if (offset < IndexReader.INDEX_SIGNATURE.length + 1
+                    || offset + IndexReader.INDEX_ENTRY_FIXED_SIZE > footer.getIndexSize()) {
+                return null;
+            }
+        }
+
+        return new BlockNameTable(reader, (int) count, hashes, bloom, offsets,
+                startOfBlock, start, startOfIndex, footer.getIndexSize());
+    }
+
+    /**
+     * @param name name encoded in UTF-8.
+     * @return false if the block surely has no entry with the given name.
+     */
+    boolean mightContain(final byte[] name) {
+        long hash = hash(name);
+        for (int i = 0; i < this.hashes; i++) {
+            int bit = bit(hash, i, this.bloom.length);
+            if ((this.bloom[bit / Long.SIZE] & (1L << (bit % Long.SIZE))) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Binary searches the latest entry of the block with the given name, reading only
+     * the names it compares.
+     *
+     * @param name name encoded in UTF-8.
+     * @return the offset of the entry in the index, or -1 if there is no entry with that
+     * name.
+     * @throws IOException   If the siva file can not be read.
+     * @throws SivaException If a name goes past the end of the index.
+     */
+    long find(final byte[] name) throws IOException, SivaException {
+        int low = 0;
+        int high = this.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (SortedNames.compare(this.nameAt(mid), name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        if (low < this.count && Arrays.equals(this.nameAt(low), name)) {
+            return this.offsetAt(low);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks that an entry found with {@link #find(byte[])} is the one that was looked up
+     * and that its content is stored in the block before the table.
+     *
+     * @param entry entry read at the offset returned by {@link #find(byte[])}.
+     * @param name  name encoded in UTF-8.
+     * @throws SivaException If the entry does not match the table.
+     */
+    void check(final IndexEntry entry, final byte[] name) throws SivaException {
+        if (!Arrays.equals(entry.getNameBytes(), name)
+                || entry.getAbsStart() < this.startOfBlock
+                || entry.getAbsStart() + entry.getSize() > this.startOfTable) {
+            throw new SivaException(this.reader.getSivaFileName(),
+                    SivaException.INVALID_NAME_TABLE);
+        }
+    }
+
+    private long offsetAt(final int i) {
+        return this.offsets.getInt(Integer.BYTES * i) & UINT32_MASK;
+    }
+
+    private byte[] nameAt(final int i) throws IOException, SivaException {
+        long offset = this.offsetAt(i);
+        int length = this.reader.readRange(this.startOfIndex + offset, Integer.BYTES).getInt();
+        if (length < 0 || offset + IndexReader.INDEX_ENTRY_FIXED_SIZE + length
+                > this.indexSize) {
+            throw new SivaException(this.reader.getSivaFileName(),
+                    SivaException.INVALID_NAME_TABLE);
+        }
+
+        byte[] name = new byte[length];
+        this.reader.readRange(this.startOfIndex + offset + Integer.BYTES, length).get(name);
+        return name;
+    }
+
+    /**
+     * @return the CRC32 of the given bytes of the table followed by the CRC32 of the index.
+     */
+    private static long checksum(final byte[] table, final int length, final long indexCrc) {
+        return checksum(ByteBuffer.wrap(table, 0, length), indexCrc);
+    }
+
+    private static long checksum(final ByteBuffer table, final long indexCrc) {
+        CRC32 checksum = new CRC32();
+        checksum.update(table.duplicate());
+        ByteBuffer crc = ByteBuffer.allocate(Integer.BYTES);
+        crc.putInt((int) indexCrc);
+        checksum.update(crc.array());
+        return checksum.getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the name, with the final mix of MurmurHash3 to spread it.
+     */
+    private static long hash(final byte[] name) {
+        long h = FNV_OFFSET;
+        for (byte b : name) {
+            h ^= b & BYTE_MASK;
+            h *= FNV_PRIME;
+        }
+
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_1;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_2;
+        h ^= h >>> MIX_SHIFT;
+        return h;
+    }
+
+    /**
+     * @return the i-th bit of the Bloom filter set by a hash, using double hashing.
+     */
+    private static int bit(final long hash, final int i, final int words) {
+        int combined = (int) hash + i * (int) (hash >>> Integer.SIZE);
+        return (int) ((combined & UINT32_MASK) % ((long) words * Long.SIZE));
+    }
+}
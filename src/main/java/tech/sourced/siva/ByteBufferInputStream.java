@@ -0,0 +1,85 @@
+package tech.sourced.siva;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * ByteBufferInputStream is an InputStream that provides the content of a sequence of
+ * buffers, one after the other. The buffers are consumed, so they should not be
+ * shared with other readers.
+ */
+final class ByteBufferInputStream extends InputStream {
+    private static final int READ_MASK = 0xFF;
+
+    private final ByteBuffer[] buffers;
+    private int current;
+
+    /**
+     * @param buffers buffers to read from, from their position to their limit.
+     */
+    ByteBufferInputStream(final ByteBuffer... buffers) {
+        this.buffers = buffers;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buf = nextBuffer();
+        if (buf == null) {
+            return -1;
+        }
+
+        return buf.get() & READ_MASK;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+
+        ByteBuffer buf = nextBuffer();
+        if (buf == null) {
+            return -1;
+        }
+
+        int n = Math.min(len, buf.remaining());
+        buf.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) {
+        long skipped = 0;
+        ByteBuffer buf = nextBuffer();
+        while (buf != null && skipped < n) {
+            int step = (int) Math.min(n - skipped, buf.remaining());
+            buf.position(buf.position() + step);
+            skipped += step;
+            buf = nextBuffer();
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long available = 0;
+        for (int i = current; i < buffers.length; i++) {
+            available += buffers[i].remaining();
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, available);
+    }
+
+    private ByteBuffer nextBuffer() {
+        while (current < buffers.length) {
+            if (buffers[current].hasRemaining()) {
+                return buffers[current];
+            }
+
+            current++;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,392 @@
+package tech.sourced.siva;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A filtered {@link Index}, with the same semantics as {@link FilteredIndex}, that keeps
+ * its entries in a compact columnar layout to use as little memory as possible on huge
+ * siva files.
+ * <p>
+ * Entries are sorted by the UTF-8 bytes of their names. Names are stored in a single
+ * byte array, each one as the length of the prefix shared with the previous name plus the
+ * rest of the name, with a full name every {@link #RESTART_INTERVAL} entries to allow
+ * binary searches. Every other field is stored in an array of primitives.
+ * {@link IndexEntry}s are created on demand every time they are requested, and lookups
+ * by name are logarithmic instead of constant.
+ */
+final class CompactIndex extends BuildableIndex {
+    private static final int RESTART_INTERVAL = 16;
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_MORE = 0x80;
+    private static final int BYTE_MASK = 0xFF;
+    private static final long UINT32_MASK = 0xFFFFFFFFL;
+    private static final long ARRAY_OVERHEAD_BYTES = 16;
+    private static final int ARRAYS = 10;
+    private static final long COLUMNS_BYTES_PER_ENTRY =
+            3 * Long.BYTES + 2 * Integer.BYTES;
+
+    // index used while reading the blocks, it is dropped once the index is complete
+    private FilteredIndex building = new FilteredIndex();
+
+    private int size;
+    private byte[] names = new byte[0];
+    private int[] restarts = new int[0];
+    private int maxNameLength;
+    private long[] blockStarts = new long[0];
+    private long[] absStarts = new long[0];
+    private long[] sizes = new long[0];
+    private int[] crcs = new int[0];
+    private int[] modes = new int[0];
+    private long[] modificationTimes = new long[0];
+    private BitSet compressed = new BitSet();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void add(final IndexEntry entry) {
+        this.building.add(entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void endIndexBlock() {
+        this.building.endIndexBlock();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    BuildableIndex newIndex() {
+        return new CompactIndex();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void mergeOlder(final BaseIndex older) {
+        this.building.mergeOlder(older);
+    }
+
+    /**
+     * Encodes all the entries read in the columnar layout.
+     */
+    @Override
+    void endIndex() {
+        List<IndexEntry> entries = this.building.getEntries();
+        this.building = null;
+
+        byte[][] encodedNames = new byte[entries.size()][];
+        Integer[] order = new Integer[entries.size()];
+        TreeSet<Long> starts = new TreeSet<>();
+        for (int i = 0; i < order.length; i++) {
+            IndexEntry entry = entries.get(i);
+            encodedNames[i] = entry.getNameBytes();
+            order[i] = i;
+            starts.add(entry.getAbsStart() - entry.getIntStart());
+        }
+
+        Arrays.sort(order, (a, b) -> SortedNames.compare(encodedNames[a], encodedNames[b]));
+
+        this.size = order.length;
+        this.blockStarts = new long[starts.size()];
+        int block = 0;
+        for (long start : starts) {
+            this.blockStarts[block++] = start;
+        }
+
+        this.absStarts = new long[size];
+        this.sizes = new long[size];
+        this.crcs = new int[size];
+        this.modes = new int[size];
+        this.modificationTimes = new long[size];
+        this.compressed = new BitSet(size);
+        this.restarts = new int[(size + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+
+        NameEncoder encoder = new NameEncoder();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < size; i++) {
+            IndexEntry entry = entries.get(order[i]);
+            byte[] name = encodedNames[order[i]];
+
+            int shared = 0;
+            if (i % RESTART_INTERVAL == 0) {
+                this.restarts[i / RESTART_INTERVAL] = encoder.length;
+            } else {
+                shared = sharedPrefix(previous, name);
+            }
+
+            encoder.writeVarint(shared);
+            encoder.writeVarint(name.length - shared);
+            encoder.write(name, shared, name.length - shared);
+            this.maxNameLength = Math.max(this.maxNameLength, name.length);
+            previous = name;
+
+            this.absStarts[i] = entry.getAbsStart();
+            this.sizes[i] = entry.getSize();
+            this.crcs[i] = (int) entry.getCrc32();
+            this.modes[i] = entry.getRawFileMode();
+            this.modificationTimes[i] = entry.getRawModificationTime();
+            this.compressed.set(i, entry.isCompressed());
+        }
+
+        this.names = Arrays.copyOf(encoder.buf, encoder.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned list creates a new {@link IndexEntry} every time an element is
+     * requested.
+     */
+    @Override
+    public List<IndexEntry> getEntries() {
+        return SortedNames.entries(size, this::entryAt);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexEntry getEntry(final String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        NameCursor cursor = new NameCursor();
+        cursor.seek(this.restartBefore(key));
+        while (cursor.next()) {
+            int cmp = compare(cursor.name, cursor.length, key);
+            if (cmp == 0) {
+                return this.entry(cursor.index, key);
+            }
+
+            if (cmp > 0) {
+                break;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<IndexEntry> getVersions(final String name) {
+        return SortedNames.versions(this.getEntry(name));
+    }
+
+    /**
+     * {@inheritDoc}
+     * Names are decoded in a reused buffer, so only the matching entries are created.
+     */
+    @Override
+    public List<IndexEntry> glob(final String pattern) {
+        return SortedNames.glob(this, pattern, prefix -> {
+            NameCursor cursor = new NameCursor();
+            cursor.seek(this.restartBefore(prefix));
+            return cursor;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    long estimatedSize() {
+        return names.length
+                + (long) Integer.BYTES * restarts.length
+                + (long) Long.BYTES * blockStarts.length
+                + COLUMNS_BYTES_PER_ENTRY * size
+                + compressed.size() / Byte.SIZE
+                + ARRAY_OVERHEAD_BYTES * ARRAYS;
+    }
+
+    private IndexEntry entryAt(final int index) {
+        NameCursor cursor = new NameCursor();
+        cursor.seek(index / RESTART_INTERVAL);
+        do {
+            cursor.next();
+        } while (cursor.index < index);
+
+        return cursor.entry();
+    }
+
+    private IndexEntry entry(final int index, final byte[] name) {
+        long absStart = this.absStarts[index];
+        Flag flag = Flag.NO_FLAG;
+        if (this.compressed.get(index)) {
+            flag = Flag.COMPRESSED;
+        }
+
+        return new IndexEntry(
+                name,
+                this.modes[index],
+                this.modificationTimes[index],
+                flag,
+                absStart - this.blockStart(absStart),
+                this.sizes[index],
+                this.crcs[index] & UINT32_MASK,
+                absStart
+        );
+    }
+
+    private long blockStart(final long absStart) {
+        int block = Arrays.binarySearch(this.blockStarts, absStart);
+        if (block < 0) {
+            block = -block - 2;
+        }
+
+        return this.blockStarts[block];
+    }
+
+    /**
+     * @return the last restart point whose name is lower than the given one.
+     */
+    private int restartBefore(final byte[] key) {
+        int low = 0;
+        int high = this.restarts.length - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = this.restarts[mid];
+            // the name of a restart point is stored complete
+            pos = skipVarint(pos);
+            int length = readVarint(pos);
+            pos = skipVarint(pos);
+
+            if (SortedNames.compare(this.names, pos, length, key) < 0) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return result;
+    }
+
+    private int readVarint(final int position) {
+        int pos = position;
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = this.names[pos++] & BYTE_MASK;
+            value |= (b & VARINT_MASK) << shift;
+            shift += VARINT_BITS;
+        } while ((b & VARINT_MORE) != 0);
+
+        return value;
+    }
+
+    private int skipVarint(final int position) {
+        int pos = position;
+        while ((this.names[pos] & VARINT_MORE) != 0) {
+            pos++;
+        }
+
+        return pos + 1;
+    }
+
+    private static int sharedPrefix(final byte[] a, final byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int compare(final byte[] a, final int length, final byte[] b) {
+        return SortedNames.compare(a, 0, length, b);
+    }
+
+    /**
+     * Sequential decoder of the names, starting at a restart point.
+     */
+    private final class NameCursor implements SortedNames.Cursor {
+        private final byte[] name = new byte[maxNameLength];
+        private int length;
+        private int index;
+        private int position;
+
+        void seek(final int restart) {
+            this.index = restart * RESTART_INTERVAL - 1;
+            if (restarts.length > 0) {
+                this.position = restarts[restart];
+            }
+        }
+
+        @Override
+        public boolean next() {
+            if (this.index + 1 >= size) {
+                return false;
+            }
+
+            this.index++;
+            int shared = readVarint(this.position);
+            this.position = skipVarint(this.position);
+            int rest = readVarint(this.position);
+            this.position = skipVarint(this.position);
+
+            System.arraycopy(names, this.position, this.name, shared, rest);
+            this.position += rest;
+            this.length = shared + rest;
+            return true;
+        }
+
+        @Override
+        public ByteBuffer name() {
+            return ByteBuffer.wrap(this.name, 0, this.length);
+        }
+
+        @Override
+        public IndexEntry entry() {
+            return CompactIndex.this.entry(this.index, Arrays.copyOf(this.name, this.length));
+        }
+    }
+
+    /**
+     * Growing buffer used to encode the names.
+     */
+    private static final class NameEncoder {
+        private byte[] buf = new byte[RESTART_INTERVAL];
+        private int length;
+
+        void writeVarint(final int value) {
+            int v = value;
+            while ((v & ~VARINT_MASK) != 0) {
+                write((byte) ((v & VARINT_MASK) | VARINT_MORE));
+                v >>>= VARINT_BITS;
+            }
+
+            write((byte) v);
+        }
+
+        void write(final byte b) {
+            ensure(1);
+            buf[length++] = b;
+        }
+
+        void write(final byte[] b, final int off, final int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, length, len);
+            length += len;
+        }
+
+        private void ensure(final int len) {
+            if (length + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + len));
+            }
+        }
+    }
+}
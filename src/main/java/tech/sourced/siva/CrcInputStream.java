@@ -0,0 +1,106 @@
+package tech.sourced.siva;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * CrcInputStream computes the CRC32 of the content of an entry while it is read, and
+ * checks it against the CRC32 kept in the index when the end of the entry is reached.
+ * If they do not match, the read fails with an IOException caused by a
+ * {@link SivaException}.
+ */
+final class CrcInputStream extends FilterInputStream {
+    private static final int SKIP_BUFFER_SIZE = 8192;
+
+    private final CRC32 checksum = new CRC32();
+    private final IndexEntry entry;
+    private final String sivaFileName;
+    private final SivaListener listener;
+    private boolean verified;
+
+    /**
+     * @param in           stream with the content of the entry.
+     * @param entry        entry being read.
+     * @param sivaFileName siva file name.
+     * @param listener     listener of the CRC32 mismatches.
+     */
+    CrcInputStream(final InputStream in, final IndexEntry entry, final String sivaFileName,
+                   final SivaListener listener) {
+        super(in);
+        this.entry = entry;
+        this.sivaFileName = sivaFileName;
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            verify();
+        } else {
+            checksum.update(b);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n < 0) {
+            verify();
+        } else {
+            checksum.update(b, off, n);
+        }
+
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        // skipped bytes are read anyway to compute the checksum
+        byte[] buf = new byte[(int) Math.min(n, SKIP_BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+
+            skipped += read;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(final int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void verify() throws IOException {
+        if (verified) {
+            return;
+        }
+
+        verified = true;
+        if (checksum.getValue() != entry.getCrc32()) {
+            SivaException e = new SivaException(sivaFileName,
+                    SivaException.invalidEntryCrc(entry.getName()));
+            listener.crcMismatch(sivaFileName, entry);
+            listener.failed(sivaFileName, e);
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package tech.sourced.siva;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * DirectorySink writes each entry as a file in a target directory, using the entry name as
+ * its relative path, and applies the file mode and the modification time of the entry.
+ * Entries whose name would point outside of the target directory are rejected.
+ */
+final class DirectorySink implements EntrySink {
+    private final Path root;
+    private final boolean posix;
+
+    /**
+     * @param root directory where the entries are written, created if it does not exist.
+     * @throws IOException If the directory can not be created.
+     */
+    DirectorySink(final Path root) throws IOException {
+        this.root = Files.createDirectories(root.toAbsolutePath().normalize());
+        this.posix = Files.getFileStore(this.root)
+                .supportsFileAttributeView(PosixFileAttributeView.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     * An existing file with the same name is replaced, so if several versions of an entry
+     * are extracted the one stored last in the siva file is kept.
+     */
+    @Override
+    public void accept(final IndexEntry entry, final InputStream content) throws IOException {
+        Path target = this.root.resolve(entry.getName()).normalize();
+        if (!target.startsWith(this.root) || target.equals(this.root)) {
+            throw new IOException("Entry " + entry.getName()
+                    + " is outside of the target directory.");
+        }
+
+        Files.createDirectories(target.getParent());
+        Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING);
+        if (this.posix) {
+            Files.setPosixFilePermissions(target, entry.getFileMode());
+        }
+
+        Files.setLastModifiedTime(target, entry.getModificationTime());
+    }
+}
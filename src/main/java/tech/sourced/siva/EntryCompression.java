@@ -0,0 +1,195 @@
+package tech.sourced.siva;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * EntryCompression decodes the content of the entries flagged as {@link Flag#COMPRESSED}.
+ * Their content is stored as a raw DEFLATE stream, without zlib header, followed by the
+ * size of the uncompressed content as a big-endian 64-bit integer. The size and CRC32 of
+ * the entry in the index refer to the stored bytes, trailer included.
+ */
+final class EntryCompression {
+    /**
+     * Size of the trailer with the uncompressed size after the compressed content.
+     */
+    static final int TRAILER_SIZE = Long.BYTES;
+
+    private static final int INFLATE_BUFFER_SIZE = 8192;
+
+    private EntryCompression() {
+    }
+
+    /**
+     * Returns a stream that decompresses the stored content of an entry as it is read.
+     * Once the compressed content ends, the rest of the stored content is read and
+     * discarded, so the given stream always reaches its end.
+     *
+     * @param stored stream with the stored content of the entry.
+     * @return stream with the uncompressed content.
+     */
+    static InputStream inflate(final InputStream stored) {
+        return new InflatingInputStream(stored);
+    }
+
+    /**
+     * Decompresses the stored content of an entry in a new heap buffer.
+     *
+     * @param stored stored content of the entry, from its position to its limit. Its
+     *               position is not changed.
+     * @return buffer with the uncompressed content, from position 0 to its limit.
+     * @throws IOException If the content is corrupted or too big to fit in a buffer.
+     */
+    static ByteBuffer inflate(final ByteBuffer stored) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(uncompressedSize(stored));
+        inflate(stored, dst);
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * Decompresses the stored content of an entry in the given buffer.
+     *
+     * @param stored stored content of the entry, from its position to its limit. Its
+     *               position is not changed.
+     * @param dst    buffer where the content is written from its position, which is moved
+     *               after the end of the content.
+     * @throws IOException If the content is corrupted or does not fit in the buffer.
+     */
+    static void inflate(final ByteBuffer stored, final ByteBuffer dst) throws IOException {
+        int size = uncompressedSize(stored);
+        if (dst.remaining() < size) {
+            throw new IOException("Buffer has " + dst.remaining()
+                    + " bytes remaining, uncompressed content has " + size + " bytes");
+        }
+
+        byte[] input;
+        int inputOffset = 0;
+        if (stored.hasArray()) {
+            input = stored.array();
+            inputOffset = stored.arrayOffset() + stored.position();
+        } else {
+            input = new byte[stored.remaining()];
+            stored.duplicate().get(input);
+        }
+
+        byte[] output;
+        int outputOffset = 0;
+        if (dst.hasArray()) {
+            output = dst.array();
+            outputOffset = dst.arrayOffset() + dst.position();
+        } else {
+            output = new byte[size];
+        }
+
+        // the trailer is given as input too, raw inflaters need a byte after the stream
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input, inputOffset, stored.remaining());
+            inflateFully(inflater, output, outputOffset, size);
+        } finally {
+            inflater.end();
+        }
+
+        if (dst.hasArray()) {
+            dst.position(dst.position() + size);
+        } else {
+            dst.put(output);
+        }
+    }
+
+    private static void inflateFully(final Inflater inflater, final byte[] output,
+                                     final int offset, final int size) throws IOException {
+        byte[] extra = new byte[1];
+        int written = 0;
+        try {
+            while (!inflater.finished()) {
+                int n;
+                if (written < size) {
+                    n = inflater.inflate(output, offset + written, size - written);
+                    written += n;
+                } else {
+                    n = inflater.inflate(extra);
+                    if (n > 0) {
+                        throw new ZipException("Compressed content is bigger than "
+                                + size + " bytes");
+                    }
+                }
+
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Unexpected end of compressed content");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+
+        if (written != size) {
+            throw new ZipException("Compressed content has " + written
+                    + " bytes, expected " + size);
+        }
+    }
+
+    private static int uncompressedSize(final ByteBuffer stored) throws IOException {
+        if (stored.remaining() < TRAILER_SIZE) {
+            throw new ZipException("Compressed content is too short");
+        }
+
+        long size = stored.getLong(stored.limit() - TRAILER_SIZE);
+        if (size < 0 || size > MappedRegions.REGION_SIZE) {
+            throw new IOException("Uncompressed content of " + size
+                    + " bytes is too big to fit in a buffer");
+        }
+
+        return (int) size;
+    }
+
+    /**
+     * InflaterInputStream that releases its inflater when it is closed, and reads the
+     * stored content until its end once the compressed content has been read.
+     */
+    private static final class InflatingInputStream extends InflaterInputStream {
+        private boolean drained;
+
+        InflatingInputStream(final InputStream stored) {
+            super(stored, new Inflater(true), INFLATE_BUFFER_SIZE);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0 && !this.drained) {
+                this.drained = true;
+                while (this.in.read(this.buf) >= 0) {
+                    // wrapped streams, such as CrcInputStream, act when they reach their end
+                    continue;
+                }
+            }
+
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (this.inf.finished()) {
+                return 0;
+            }
+
+            return super.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.inf.end();
+            }
+        }
+    }
+}
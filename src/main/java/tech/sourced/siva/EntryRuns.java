@@ -0,0 +1,89 @@
+package tech.sourced.siva;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * EntryRuns groups entries that are stored close to each other in a siva file, so they
+ * can be read with a few big reads instead of one read per entry. Entries are sorted by
+ * their position in the file, and consecutive entries are added to the same run while
+ * the gap between them and the size of the run are under the given limits.
+ */
+final class EntryRuns {
+    private EntryRuns() {
+    }
+
+    /**
+     * Groups the given entries in runs.
+     *
+     * @param entries    entries to group, in any order.
+     * @param maxGap     maximum number of bytes between two entries of the same run.
+     * @param maxRunSize maximum size of a run, unless it has a single bigger entry.
+     * @return the runs sorted by their position in the file.
+     */
+    static List<Run> of(final List<IndexEntry> entries, final long maxGap,
+                        final long maxRunSize) {
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, Comparator.comparingLong(i -> entries.get(i).getAbsStart()));
+
+        List<Run> runs = new ArrayList<>();
+        Run run = null;
+        for (int i : order) {
+            IndexEntry entry = entries.get(i);
+            long start = entry.getAbsStart();
+            long end = start + entry.getSize();
+            if (run == null || start > run.end + maxGap
+                    || Math.max(run.end, end) - run.start > maxRunSize) {
+                run = new Run(start);
+                runs.add(run);
+            }
+
+            run.end = Math.max(run.end, end);
+            run.members.add(i);
+        }
+
+        return runs;
+    }
+
+    /**
+     * Range of a siva file with the entries it contains.
+     */
+    static final class Run {
+        private final long start;
+        private long end;
+        private final List<Integer> members = new ArrayList<>();
+
+        private Run(final long start) {
+            this.start = start;
+            this.end = start;
+        }
+
+        /**
+         * @return absolute position of the first byte of the run.
+         */
+        long getStart() {
+            return start;
+        }
+
+        /**
+         * @return size of the run in bytes.
+         */
+        long getSize() {
+            return end - start;
+        }
+
+        /**
+         * @return positions in the grouped list of the entries of the run, sorted by the
+         * position of the entries in the file.
+         */
+        List<Integer> getMembers() {
+            return members;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package tech.sourced.siva;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * EntrySink receives the content of the entries extracted by
+ * {@link SivaReader#extractAll(java.util.Collection, EntrySink)}, one entry at a time.
+ */
+@FunctionalInterface
+public interface EntrySink {
+
+    /**
+     * Called for each extracted entry, in the order the entries are stored in the siva
+     * file. The given stream can only be read until this method returns, and it does
+     * not need to be closed.
+     *
+     * @param entry   entry being extracted.
+     * @param content content of the entry.
+     * @throws IOException If the content can not be consumed, which stops the extraction.
+     */
+    void accept(IndexEntry entry, InputStream content) throws IOException;
+}
@@ -1,5 +1,8 @@
 package tech.sourced.siva;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.EnumSet;
 import java.util.Set;
@@ -53,4 +56,38 @@ final class FileModeUtils {
         }
         return perms;
     }
+
+    /**
+     * Obtain the mode of a file with the given permissions.
+     *
+     * @param perms permissions of the file.
+     * @return mode with the permissions bits set.
+     */
+    static int fileMode(final Set<PosixFilePermission> perms) {
+        int mask = 1;
+        int mode = 0;
+        for (PosixFilePermission flag : DECODE_MAP) {
+            if (perms.contains(flag)) {
+                mode |= mask;
+            }
+            mask = mask << 1;
+        }
+        return mode;
+    }
+
+    /**
+     * Gives a file the same POSIX permissions as another one. Nothing is done if the file
+     * system does not support POSIX permissions.
+     *
+     * @param source file whose permissions are copied.
+     * @param target file whose permissions are changed.
+     * @throws IOException If the permissions can not be read or changed.
+     */
+    static void copyPermissions(final Path source, final Path target) throws IOException {
+        if (!source.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+
+        Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+    }
 }
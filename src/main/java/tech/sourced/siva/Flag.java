@@ -3,7 +3,9 @@ package tech.sourced.siva;
 /**
  * Flags used by the index to annotate files. Siva format v1 just make use of
  * the flags to mark a file as deleted.
- * Different flags could be added in future versions.
+ * <p>
+ * This implementation also uses the next reserved bit to mark the files whose content is
+ * stored compressed with DEFLATE, which readers that do not know the flag can not read.
  */
 enum Flag {
 
@@ -15,7 +17,16 @@ enum Flag {
     /**
      * Deleted file.
      */
-    DELETE;
+    DELETE,
+
+    /**
+     * File whose content is compressed with raw DEFLATE, followed by its uncompressed
+     * size as a big-endian 64-bit integer.
+     */
+    COMPRESSED;
+
+    private static final int DELETE_BIT = 1;
+    private static final int COMPRESSED_BIT = 2;
 
     /**
      * get the flag from an integer.
@@ -24,11 +35,30 @@ enum Flag {
      * @return Flag element.
      */
     public static Flag fromInteger(final int i) {
-        switch (i) {
-            case 1:
-                return DELETE;
+        if ((i & DELETE_BIT) != 0) {
+            return DELETE;
+        }
+
+        if ((i & COMPRESSED_BIT) != 0) {
+            return COMPRESSED;
+        }
+
+        return NO_FLAG;
+    }
+
+    /**
+     * get the integer that represents the flag in the siva file.
+     *
+     * @return flag id.
+     */
+    int toInteger() {
+        switch (this) {
+            case DELETE:
+                return DELETE_BIT;
+            case COMPRESSED:
+                return COMPRESSED_BIT;
             default:
-                return NO_FLAG;
+                return 0;
         }
     }
 }
@@ -0,0 +1,412 @@
+package tech.sourced.siva;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * GlobPattern is a compiled glob pattern that matches entry names directly, using the
+ * same syntax and rules as the glob patterns of {@link java.nio.file.FileSystem#getPathMatcher}
+ * on UNIX systems, where {@code /} is the name separator.
+ * <p>
+ * The pattern is parsed into a sequence of nodes that are matched directly against the
+ * names, backtracking on wildcards. The supported syntax is:
+ * <ul>
+ * <li>{@code *} matches any number of characters within a name component, and
+ * {@code **} any number of characters crossing {@code /}.</li>
+ * <li>{@code ?} matches one character other than {@code /}.</li>
+ * <li>{@code [...]} matches one character other than {@code /} in the class. A leading
+ * {@code !} negates it, a {@code -} is literal when it comes first or last, and
+ * {@code ^}, {@code [} and {@code \} are literal inside a class. A {@code /} can not
+ * be part of a class.</li>
+ * <li>{@code {a,b}} matches any of the comma separated alternatives, which can have
+ * wildcards and classes but not other groups.</li>
+ * <li>{@code \} makes the next character literal.</li>
+ * </ul>
+ * Besides the pattern, it keeps the literal prefix all the matching names start with, so
+ * indexes can limit the names to check. Compiled patterns are cached, so the same
+ * pattern is only compiled once.
+ */
+final class GlobPattern {
+    private static final int CACHE_SIZE = 256;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final String GLOB_META_CHARS = "\\*?[{";
+    private static final char EOL = 0;
+    private static final char SEPARATOR = '/';
+
+    private static final LinkedHashMap<String, GlobPattern> CACHE =
+            new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private final Node[] nodes;
+    private final String prefix;
+    private final boolean literal;
+
+    private GlobPattern(final Node[] nodes, final String prefix, final boolean literal) {
+        this.nodes = nodes;
+        this.prefix = prefix;
+        this.literal = literal;
+    }
+
+    /**
+     * Compiles a glob pattern, or returns it from the cache if it was already compiled.
+     *
+     * @param glob glob pattern.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if the pattern is invalid.
+     */
+    static GlobPattern compile(final String glob) {
+        synchronized (CACHE) {
+            GlobPattern cached = CACHE.get(glob);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        boolean literal = true;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()
+                    && GLOB_META_CHARS.indexOf(glob.charAt(i + 1)) >= 0) {
+                prefix.append(glob.charAt(++i));
+            } else if (GLOB_META_CHARS.indexOf(c) >= 0) {
+                literal = false;
+                break;
+            } else {
+                prefix.append(c);
+            }
+        }
+
+        GlobPattern compiled = new GlobPattern(
+                new Parser(glob).parse(),
+                prefix.toString(),
+                literal
+        );
+
+        synchronized (CACHE) {
+            CACHE.put(glob, compiled);
+
+            if (CACHE.size() > CACHE_SIZE) {
+                // the least recently used pattern is the first one
+                Iterator<GlobPattern> it = CACHE.values().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+
+        return compiled;
+    }
+
+    /**
+     * @return the literal part at the start of the pattern that all the matching names
+     * start with.
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return true if the pattern has no wildcards, so the only matching name is the
+     * prefix.
+     */
+    boolean isLiteral() {
+        return literal;
+    }
+
+    /**
+     * Checks if a whole name matches the pattern. This method is thread safe.
+     *
+     * @param name name of an entry.
+     * @return true if the name matches.
+     */
+    boolean matches(final CharSequence name) {
+        return matches(this.nodes, 0, name, 0, null, 0);
+    }
+
+    /**
+     * Matches the nodes from the given one against the name from the given position. When
+     * the nodes are the alternative of a group, the nodes after the group are matched
+     * next.
+     *
+     * @param nodes     nodes to match.
+     * @param index     first node to match.
+     * @param name      name being matched.
+     * @param start     position of the name where the first node is matched.
+     * @param then      nodes after the group when matching one of its alternatives, or null.
+     * @param thenIndex first node after the group.
+     * @return true if the rest of the name matches the rest of the nodes.
+     */
+    private static boolean matches(final Node[] nodes, final int index, final CharSequence name,
+                                   final int start, final Node[] then, final int thenIndex) {
+        int pos = start;
+        for (int i = index; i < nodes.length; i++) {
+            Node node = nodes[i];
+            if (node instanceof Star) {
+                // tries the rest of the pattern after each number of matched characters
+                for (int end = pos;; end++) {
+                    if (matches(nodes, i + 1, name, end, then, thenIndex)) {
+                        return true;
+                    }
+
+                    if (end == name.length() || !node.matches(name.charAt(end))) {
+                        return false;
+                    }
+                }
+            }
+
+            if (node instanceof Group) {
+                for (Node[] alternative : ((Group) node).alternatives) {
+                    if (matches(alternative, 0, name, pos, nodes, i + 1)) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            if (pos == name.length() || !node.matches(name.charAt(pos))) {
+                return false;
+            }
+
+            pos++;
+        }
+
+        if (then != null) {
+            return matches(then, thenIndex, name, pos, null, 0);
+        }
+
+        return pos == name.length();
+    }
+
+    /**
+     * Parses a glob pattern into nodes.
+     */
+    private static final class Parser {
+        private final String glob;
+        private int pos;
+
+        Parser(final String glob) {
+            this.glob = glob;
+        }
+
+        Node[] parse() {
+            List<Node> nodes = new ArrayList<>();
+            while (this.pos < this.glob.length()) {
+                char c = this.glob.charAt(this.pos);
+                if (c == '{') {
+                    this.pos++;
+                    nodes.add(this.parseGroup());
+                } else {
+                    nodes.add(this.parseNode());
+                }
+            }
+
+            return nodes.toArray(new Node[0]);
+        }
+
+        /**
+         * Parses the alternatives of a group, after its opening brace.
+         */
+        private Group parseGroup() {
+            int start = this.pos - 1;
+            List<Node[]> alternatives = new ArrayList<>();
+            List<Node> nodes = new ArrayList<>();
+            while (this.pos < this.glob.length()) {
+                char c = this.glob.charAt(this.pos);
+                if (c == '{') {
+                    throw new PatternSyntaxException("Cannot nest groups", this.glob, this.pos);
+                }
+
+                if (c == ',' || c == '}') {
+                    this.pos++;
+                    alternatives.add(nodes.toArray(new Node[0]));
+                    nodes.clear();
+                    if (c == '}') {
+                        return new Group(alternatives.toArray(new Node[0][]));
+                    }
+                } else {
+                    nodes.add(this.parseNode());
+                }
+            }
+
+            throw new PatternSyntaxException("Missing '}'", this.glob, start);
+        }
+
+        /**
+         * Parses a node that is not a group.
+         */
+        private Node parseNode() {
+            char c = this.glob.charAt(this.pos++);
+            switch (c) {
+                case '\\':
+                    if (this.pos == this.glob.length()) {
+                        throw new PatternSyntaxException("Nothing to escape after '\\'",
+                                this.glob, this.pos - 1);
+                    }
+
+                    return new Literal(this.glob.charAt(this.pos++));
+                case '*':
+                    if (this.peek() == '*') {
+                        this.pos++;
+                        return new Star(true);
+                    }
+
+                    return new Star(false);
+                case '?':
+                    return new CharClass(new char[0], true);
+                case '[':
+                    return this.parseClass();
+                default:
+                    return new Literal(c);
+            }
+        }
+
+        /**
+         * Parses a character class, after its opening bracket. The class is kept as pairs
+         * with the first and last character of each range.
+         */
+        private CharClass parseClass() {
+            int start = this.pos - 1;
+            boolean negated = false;
+            if (this.peek() == '!') {
+                negated = true;
+                this.pos++;
+            }
+
+            StringBuilder ranges = new StringBuilder();
+            boolean first = true;
+            while (this.pos < this.glob.length()) {
+                char c = this.glob.charAt(this.pos++);
+                if (c == ']') {
+                    return new CharClass(ranges.toString().toCharArray(), negated);
+                }
+
+                if (c == SEPARATOR) {
+                    throw new PatternSyntaxException("Name separator in class",
+                            this.glob, this.pos - 1);
+                }
+
+                // a hyphen is only literal at the start or the end of the class
+                if (c == '-' && !first && this.peek() != ']') {
+                    throw new PatternSyntaxException("Invalid range", this.glob, this.pos - 1);
+                }
+
+                char last = c;
+                if (this.peek() == '-' && this.pos + 1 < this.glob.length()
+                        && this.glob.charAt(this.pos + 1) != ']') {
+                    last = this.glob.charAt(this.pos + 1);
+                    if (last < c) {
+                        throw new PatternSyntaxException("Invalid range", this.glob, this.pos);
+                    }
+
+                    this.pos += 2;
+                }
+
+                ranges.append(c).append(last);
+                first = false;
+            }
+
+            throw new PatternSyntaxException("Missing ']'", this.glob, start);
+        }
+
+        private char peek() {
+            if (this.pos < this.glob.length()) {
+                return this.glob.charAt(this.pos);
+            }
+
+            return EOL;
+        }
+    }
+
+    /**
+     * Part of a pattern. Unless stated otherwise, nodes match a single character.
+     */
+    private abstract static class Node {
+        /**
+         * @param c character of a name.
+         * @return true if the node matches the character.
+         */
+        abstract boolean matches(char c);
+    }
+
+    /**
+     * Matches the same character.
+     */
+    private static final class Literal extends Node {
+        private final char c;
+
+        Literal(final char c) {
+            this.c = c;
+        }
+
+        @Override
+        boolean matches(final char other) {
+            return this.c == other;
+        }
+    }
+
+    /**
+     * Matches a character other than the separator that is, or is not if negated, in one
+     * of the ranges.
+     */
+    private static final class CharClass extends Node {
+        private final char[] ranges;
+        private final boolean negated;
+
+        CharClass(final char[] ranges, final boolean negated) {
+            this.ranges = ranges;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean matches(final char c) {
+            if (c == SEPARATOR) {
+                return false;
+            }
+
+            for (int i = 0; i < this.ranges.length; i += 2) {
+                if (c >= this.ranges[i] && c <= this.ranges[i + 1]) {
+                    return !this.negated;
+                }
+            }
+
+            return this.negated;
+        }
+    }
+
+    /**
+     * Matches any number of characters, crossing separators or not. It matches single
+     * characters that can be part of the run.
+     */
+    private static final class Star extends Node {
+        private final boolean crossSeparators;
+
+        Star(final boolean crossSeparators) {
+            this.crossSeparators = crossSeparators;
+        }
+
+        @Override
+        boolean matches(final char c) {
+            return this.crossSeparators || c != SEPARATOR;
+        }
+    }
+
+    /**
+     * Matches any of its alternatives.
+     */
+    private static final class Group extends Node {
+        private final Node[][] alternatives;
+
+        Group(final Node[][] alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        boolean matches(final char c) {
+            throw new IllegalStateException("groups do not match single characters");
+        }
+    }
+}
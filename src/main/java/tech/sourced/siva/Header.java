@@ -1,19 +1,41 @@
 package tech.sourced.siva;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Header contains the meta information from a file that a single {@link IndexEntry}
  * keeps in the siva file.
+ * <p>
+ * Headers read from a siva file keep the raw values of the index, and the name, mode
+ * and modification time are only decoded the first time they are requested.
  */
 public class Header {
-    private final String name;
-    private final Set<PosixFilePermission> fileMode;
-    private final FileTime modificationTime;
+    private final byte[] rawName;
+    private final int rawFileMode;
+    private final long rawModificationTime;
     private final Flag flag;
 
+    private volatile String name;
+    private volatile Set<PosixFilePermission> fileMode;
+    private volatile FileTime modificationTime;
+
+    /**
+     * Builds a Header object to write a file with the given meta information in a siva file.
+     *
+     * @param name             Entry name.
+     * @param fileMode         UNIX mode.
+     * @param modificationTime Modification time.
+     * @see SivaWriter#writeHeader(Header)
+     */
+    public Header(final String name, final Set<PosixFilePermission> fileMode,
+                  final FileTime modificationTime) {
+        this(name, fileMode, modificationTime, Flag.NO_FLAG);
+    }
+
     /**
      * Builds a Header object with the given file meta information(name, UNIX modification
      * time, UNIX file mode and Flag).
@@ -25,31 +47,69 @@ public class Header {
      */
     Header(final String name, final Set<PosixFilePermission> fileMode,
            final FileTime modificationTime, final Flag flag) {
+        this.rawName = null;
+        this.rawFileMode = 0;
+        this.rawModificationTime = 0;
         this.name = name;
         this.fileMode = fileMode;
         this.modificationTime = modificationTime;
         this.flag = flag;
     }
 
+    /**
+     * Builds a Header object with the raw file meta information as it is stored in the
+     * index of a siva file, which is decoded on demand.
+     *
+     * @param rawName             Entry name encoded in UTF-8.
+     * @param rawFileMode         Go file mode.
+     * @param rawModificationTime Modification time as UNIX time in nanoseconds.
+     * @param flag                supported flags @see {@link Flag}
+     */
+    Header(final byte[] rawName, final int rawFileMode, final long rawModificationTime,
+           final Flag flag) {
+        this.rawName = rawName;
+        this.rawFileMode = rawFileMode;
+        this.rawModificationTime = rawModificationTime;
+        this.flag = flag;
+    }
+
     /**
      * @return Entry name.
      */
     public final String getName() {
-        return name;
+        String result = this.name;
+        if (result == null) {
+            result = new String(rawName, StandardCharsets.UTF_8);
+            this.name = result;
+        }
+
+        return result;
     }
 
     /**
      * @return Modification time as Unix time in nanoseconds.
      */
     public final FileTime getModificationTime() {
-        return modificationTime;
+        FileTime result = this.modificationTime;
+        if (result == null) {
+            result = FileTime.from(rawModificationTime, TimeUnit.NANOSECONDS);
+            this.modificationTime = result;
+        }
+
+        return result;
     }
 
     /**
      * @return UNIX file mode.
      */
     public final Set<PosixFilePermission> getFileMode() {
-        return fileMode;
+        Set<PosixFilePermission> result = this.fileMode;
+        if (result == null) {
+            result = FileModeUtils.posixFilePermissions(rawFileMode);
+            this.fileMode = result;
+        }
+
+        return result;
     }
 
     /**
@@ -58,4 +118,45 @@ public class Header {
     public final Flag getFlag() {
         return flag;
     }
+
+    /**
+     * @return true if the content of the file is stored compressed. Readers decompress it
+     * transparently, but sizes and checksums in the index refer to the stored bytes.
+     */
+    public final boolean isCompressed() {
+        return flag == Flag.COMPRESSED;
+    }
+
+    /**
+     * @return Entry name encoded in UTF-8, without decoding it if it has not been decoded.
+     */
+    final byte[] getNameBytes() {
+        if (rawName == null) {
+            return getName().getBytes(StandardCharsets.UTF_8);
+        }
+
+        return rawName;
+    }
+
+    /**
+     * @return file mode as it is stored in the siva file.
+     */
+    final int getRawFileMode() {
+        if (rawName == null) {
+            return FileModeUtils.fileMode(getFileMode());
+        }
+
+        return rawFileMode;
+    }
+
+    /**
+     * @return Modification time as UNIX time in nanoseconds.
+     */
+    final long getRawModificationTime() {
+        if (rawName == null) {
+            return getModificationTime().to(TimeUnit.NANOSECONDS);
+        }
+
+        return rawModificationTime;
+    }
 }
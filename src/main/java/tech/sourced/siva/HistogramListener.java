@@ -0,0 +1,324 @@
+package tech.sourced.siva;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HistogramListener is a {@link SivaListener} keeping the events in memory: histograms of
+ * the duration of the index loads and entry reads and of the bytes read from each entry,
+ * totals of the index loads, and the index load time, entry reads and failures of each
+ * siva file, to find the slowest and the most used ones.
+ * <p>
+ * The values of each siva file are kept by file name until {@link #reset()} is called, so
+ * a long lived listener should be reset from time to time if the readers open an unbounded
+ * number of different siva files.
+ */
+public final class HistogramListener implements SivaListener {
+    private final Histogram indexLoadNanos = new Histogram();
+    private final Histogram entryReadNanos = new Histogram();
+    private final Histogram entryBytes = new Histogram();
+    private final LongAdder indexBlocks = new LongAdder();
+    private final LongAdder indexEntries = new LongAdder();
+    private final LongAdder indexBytes = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder entriesOpened = new LongAdder();
+    private final LongAdder crcMismatches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Map<String, LongAdder> indexLoadNanosByFile = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> entriesOpenedByFile = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failuresByFile = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failuresByCause = new ConcurrentHashMap<>();
+
+    @Override
+    public void indexLoaded(final String sivaFileName, final long durationNanos,
+                            final long blocks, final long entries, final long bytes) {
+        indexLoadNanos.record(durationNanos);
+        indexBlocks.add(blocks);
+        indexEntries.add(entries);
+        indexBytes.add(bytes);
+        add(indexLoadNanosByFile, sivaFileName, durationNanos);
+    }
+
+    @Override
+    public void indexCacheHit(final String sivaFileName) {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void entryOpened(final String sivaFileName, final IndexEntry entry) {
+        entriesOpened.increment();
+        add(entriesOpenedByFile, sivaFileName, 1);
+    }
+
+    @Override
+    public void entryClosed(final String sivaFileName, final IndexEntry entry,
+                            final long bytes, final long durationNanos) {
+        entryReadNanos.record(durationNanos);
+        entryBytes.record(bytes);
+    }
+
+    @Override
+    public void crcMismatch(final String sivaFileName, final IndexEntry entry) {
+        crcMismatches.increment();
+    }
+
+    @Override
+    public void failed(final String sivaFileName, final SivaException e) {
+        failures.increment();
+        add(failuresByFile, sivaFileName, 1);
+
+        Throwable cause = e;
+        if (e.getCause() != null) {
+            cause = e.getCause();
+        }
+
+        add(failuresByCause, cause.getClass().getName(), 1);
+    }
+
+    private static void add(final Map<String, LongAdder> counters, final String key,
+                            final long value) {
+        counters.computeIfAbsent(key, k -> new LongAdder()).add(value);
+    }
+
+    private static Map<String, Long> snapshot(final Map<String, LongAdder> counters) {
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            result.put(e.getKey(), e.getValue().sum());
+        }
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return histogram of the time spent loading indexes from siva files, in nanoseconds.
+     */
+    public Histogram getIndexLoadNanos() {
+        return indexLoadNanos;
+    }
+
+    /**
+     * @return histogram of the time from opening to closing entry streams, in nanoseconds.
+     */
+    public Histogram getEntryReadNanos() {
+        return entryReadNanos;
+    }
+
+    /**
+     * @return histogram of the bytes read from each entry stream.
+     */
+    public Histogram getEntryBytes() {
+        return entryBytes;
+    }
+
+    /**
+     * @return number of blocks read by all the index loads.
+     */
+    public long getIndexBlocks() {
+        return indexBlocks.sum();
+    }
+
+    /**
+     * @return number of entries read by all the index loads.
+     */
+    public long getIndexEntries() {
+        return indexEntries.sum();
+    }
+
+    /**
+     * @return number of bytes of indexes and footers read by all the index loads.
+     */
+    public long getIndexBytes() {
+        return indexBytes.sum();
+    }
+
+    /**
+     * @return number of indexes found in a cache or a sidecar file.
+     */
+    public long getIndexCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return number of entry streams opened.
+     */
+    public long getEntriesOpened() {
+        return entriesOpened.sum();
+    }
+
+    /**
+     * @return number of index blocks and entries whose CRC32 did not match.
+     */
+    public long getCrcMismatches() {
+        return crcMismatches.sum();
+    }
+
+    /**
+     * @return number of operations failed with a {@link SivaException}.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return total time spent loading indexes of each siva file, in nanoseconds.
+     */
+    public Map<String, Long> getIndexLoadNanosByFile() {
+        return snapshot(indexLoadNanosByFile);
+    }
+
+    /**
+     * @return number of entry streams opened from each siva file.
+     */
+    public Map<String, Long> getEntriesOpenedByFile() {
+        return snapshot(entriesOpenedByFile);
+    }
+
+    /**
+     * @return number of failures of each siva file.
+     */
+    public Map<String, Long> getFailuresByFile() {
+        return snapshot(failuresByFile);
+    }
+
+    /**
+     * @return number of failures by the class name of their cause, or of the
+     * {@link SivaException} itself if it has no cause, as when the siva file is not valid.
+     */
+    public Map<String, Long> getFailuresByCause() {
+        return snapshot(failuresByCause);
+    }
+
+    /**
+     * Clears all the histograms and counters.
+     */
+    public void reset() {
+        indexLoadNanos.reset();
+        entryReadNanos.reset();
+        entryBytes.reset();
+        indexBlocks.reset();
+        indexEntries.reset();
+        indexBytes.reset();
+        cacheHits.reset();
+        entriesOpened.reset();
+        crcMismatches.reset();
+        failures.reset();
+        indexLoadNanosByFile.clear();
+        entriesOpenedByFile.clear();
+        failuresByFile.clear();
+        failuresByCause.clear();
+    }
+
+    /**
+     * Histogram of non negative values, with a bucket for each power of 2. Values are
+     * recorded without locks, and percentiles are approximated by the upper bound of the
+     * bucket where they are.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = Long.SIZE;
+        private static final double MAX_PERCENTILE = 100;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram() {
+        }
+
+        private void record(final long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(bucket(v));
+            count.increment();
+            sum.add(v);
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        /**
+         * Bucket 0 holds 0, and bucket i holds the values in [2^(i-1), 2^i).
+         */
+        private static int bucket(final long value) {
+            return BUCKETS - Long.numberOfLeadingZeros(value);
+        }
+
+        /**
+         * @return number of recorded values.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return sum of the recorded values.
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * @return biggest recorded value, or 0 if there is none.
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return mean of the recorded values, or 0 if there is none.
+         */
+        public double getMean() {
+            long n = getCount();
+            if (n == 0) {
+                return 0;
+            }
+
+            return (double) getSum() / n;
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100.
+         * @return upper bound of the bucket holding the given percentile, never bigger
+         * than the biggest recorded value, or 0 if there are no values.
+         */
+        public long getPercentile(final double percentile) {
+            if (percentile < 0 || percentile > MAX_PERCENTILE) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+
+            long rank = (long) Math.ceil(total * percentile / MAX_PERCENTILE);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    if (i == 0) {
+                        return 0;
+                    }
+
+                    return Math.min((1L << i) - 1, getMax());
+                }
+            }
+
+            return 0;
+        }
+    }
+}
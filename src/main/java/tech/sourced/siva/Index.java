@@ -1,9 +1,9 @@
 package tech.sourced.siva;
 
-import java.nio.file.FileSystems;
-import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -24,6 +24,25 @@ public interface Index {
      */
     List<IndexEntry> getEntries();
 
+    /**
+     * getEntry returns the latest entry with the given name, or null if the index does not
+     * contain any entry with that name. The lookup does not depend on the size of the index.
+     *
+     * @param name name of the entry.
+     * @return the latest IndexEntry with that name or null.
+     */
+    IndexEntry getEntry(String name);
+
+    /**
+     * getVersions returns all the entries with the given name that the index contains,
+     * from the latest to the oldest one, or an empty List if there is no entry with
+     * that name.
+     *
+     * @param name name of the entry.
+     * @return a list of IndexEntry with that name.
+     */
+    List<IndexEntry> getVersions(String name);
+
     /**
      * glob returns all index entries whose name matches pattern or an empty List if there is
      * no matching entry.
@@ -35,45 +54,170 @@ public interface Index {
 }
 
 /**
- * Base abstract class to implement custom Indexes.
+ * Base abstract class to implement custom Indexes. It only holds the lookups shared by
+ * all the indexes, the ones filled by reading the blocks of a siva file extend
+ * {@link BuildableIndex}.
  *
- * @see {@link FilteredIndex} and {@link CompleteIndex}
+ * @see {@link FilteredIndex}, {@link CompleteIndex}, {@link CompactIndex} and
+ * {@link SidecarIndex}
  */
 abstract class BaseIndex implements Index {
     /**
-     * This method will be called in the same order that the index has been read.
-     *
-     * @param entry to add to the index.
+     * Rough estimation of the memory used by each entry, without counting its name.
      */
-    abstract void add(IndexEntry entry);
+    private static final long ENTRY_OVERHEAD_BYTES = 200;
+
+    private static final Comparator<IndexEntry> BY_NAME =
+            Comparator.comparing(IndexEntry::getName);
+
+    private long sivaLength;
+    private volatile IndexEntry[] sortedEntries;
 
     /**
-     * This method will be called when an index block is totally read.
+     * @return a new empty index of the same kind, to read the siva file again.
      */
-    abstract void endIndexBlock();
+    abstract BuildableIndex newIndex();
+
+    /**
+     * @return the kind of index that was requested, which is the class of this index
+     * unless it is stored in a different layout.
+     */
+    Class<? extends BaseIndex> getKind() {
+        return this.getClass();
+    }
+
+    /**
+     * @return length of the siva file when the index was read.
+     */
+    long getSivaLength() {
+        return sivaLength;
+    }
+
+    /**
+     * @param sivaLength length of the siva file when the index was read.
+     */
+    void setSivaLength(final long sivaLength) {
+        this.sivaLength = sivaLength;
+    }
+
+    /**
+     * @return estimation of the memory used by this index in bytes.
+     */
+    long estimatedSize() {
+        long size = 0;
+        for (IndexEntry entry : this.getEntries()) {
+            size += ENTRY_OVERHEAD_BYTES + 2L * entry.getName().length();
+        }
+
+        return size;
+    }
 
     /**
      * {@inheritDoc}
+     * Patterns follow the syntax of {@link java.nio.file.FileSystem#getPathMatcher} glob
+     * patterns, using {@code /} as name separator. If the pattern starts with a literal
+     * prefix, only the entries starting with it are checked.
      */
     @Override
     public List<IndexEntry> glob(final String pattern) {
-        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:".concat(pattern));
+        GlobPattern glob = GlobPattern.compile(pattern);
+        if (glob.isLiteral()) {
+            return new ArrayList<>(this.getVersions(glob.getPrefix()));
+        }
+
+        IndexEntry[] sorted = this.getSortedEntries();
+        String prefix = glob.getPrefix();
+        int from = 0;
+        if (!prefix.isEmpty()) {
+            from = lowerBound(sorted, prefix);
+        }
+
         List<IndexEntry> result = new ArrayList<>();
-        for (IndexEntry entry : this.getEntries()) {
-            if (matcher.matches(Paths.get(entry.getName()))) {
-                result.add(entry);
+        for (int i = from; i < sorted.length; i++) {
+            String name = sorted[i].getName();
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+
+            if (glob.matches(name)) {
+                result.add(sorted[i]);
             }
         }
 
         return result;
     }
+
+    /**
+     * The entries sorted by name are computed the first time they are needed, once the
+     * index has been completely read.
+     *
+     * @return all the entries of the index sorted by name.
+     */
+    private IndexEntry[] getSortedEntries() {
+        IndexEntry[] result = this.sortedEntries;
+        if (result == null) {
+            result = this.getEntries().toArray(new IndexEntry[0]);
+            Arrays.sort(result, BY_NAME);
+            this.sortedEntries = result;
+        }
+
+        return result;
+    }
+
+    private static int lowerBound(final IndexEntry[] sorted, final String name) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].getName().compareTo(name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
+
+/**
+ * Base abstract class of the indexes that are filled by reading the blocks of a siva file.
+ */
+abstract class BuildableIndex extends BaseIndex {
+    /**
+     * This method will be called in the same order that the index has been read.
+     *
+     * @param entry to add to the index.
+     */
+    abstract void add(IndexEntry entry);
+
+    /**
+     * This method will be called when an index block is totally read.
+     */
+    abstract void endIndexBlock();
+
+    /**
+     * This method will be called once all the blocks appended to a siva file have been
+     * read, to add the entries of an index previously read from the same file, as if
+     * its blocks had been read again.
+     *
+     * @param older index of the same kind read from the same file when it was smaller.
+     */
+    abstract void mergeOlder(BaseIndex older);
+
+    /**
+     * This method will be called once the index is complete, after all the blocks have
+     * been read and merged, and before the index is returned.
+     */
+    void endIndex() {
+    }
 }
 
 /**
  * A filtered {@link Index} with no duplicates, keeping the latest versions and excluding all
  * the deleted files.
  */
-class FilteredIndex extends BaseIndex {
+class FilteredIndex extends BuildableIndex {
     private final Map<String, IndexEntry> entries = new HashMap<>();
     private final Map<String, IndexEntry> blockEntries = new HashMap<>();
 
@@ -109,6 +253,40 @@ class FilteredIndex extends BaseIndex {
         this.blockEntries.clear();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    BuildableIndex newIndex() {
+        return new FilteredIndex();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void mergeOlder(final BaseIndex older) {
+        if (!(older instanceof FilteredIndex)) {
+            // any other filtered index has already left its deleted entries out
+            for (IndexEntry entry : older.getEntries()) {
+                if (!this.deleted.contains(entry.getName())) {
+                    this.entries.putIfAbsent(entry.getName(), entry);
+                }
+            }
+
+            return;
+        }
+
+        FilteredIndex index = (FilteredIndex) older;
+        for (Map.Entry<String, IndexEntry> entry : index.entries.entrySet()) {
+            if (!this.deleted.contains(entry.getKey())) {
+                this.entries.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+
+        this.deleted.addAll(index.deleted);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -116,13 +294,37 @@ class FilteredIndex extends BaseIndex {
     public List<IndexEntry> getEntries() {
         return new ArrayList<>(this.entries.values());
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexEntry getEntry(final String name) {
+        return this.entries.get(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<IndexEntry> getVersions(final String name) {
+        IndexEntry entry = this.entries.get(name);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+
+        return Collections.singletonList(entry);
+    }
 }
 
 /**
  * CompleteIndex contains all the {@link IndexEntry}s, without any kind of filtering.
+ * Deleted files appear as entries with the {@link Flag#DELETE} flag.
  */
-class CompleteIndex extends BaseIndex {
+class CompleteIndex extends BuildableIndex {
     private final List<IndexEntry> entries = new ArrayList<>();
+    private final List<Integer> blockEnds = new ArrayList<>();
+    private volatile Map<String, List<IndexEntry>> versions;
 
     /**
      * {@inheritDoc}
@@ -137,6 +339,28 @@ class CompleteIndex extends BaseIndex {
      */
     @Override
     void endIndexBlock() {
+        this.blockEnds.add(this.entries.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    BuildableIndex newIndex() {
+        return new CompleteIndex();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void mergeOlder(final BaseIndex older) {
+        CompleteIndex index = (CompleteIndex) older;
+        int offset = this.entries.size();
+        this.entries.addAll(index.entries);
+        for (int end : index.blockEnds) {
+            this.blockEnds.add(offset + end);
+        }
     }
 
     /**
@@ -144,6 +368,65 @@ class CompleteIndex extends BaseIndex {
      */
     @Override
     public List<IndexEntry> getEntries() {
-        return this.entries;
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned entry could be a deleted file.
+     */
+    @Override
+    public IndexEntry getEntry(final String name) {
+        List<IndexEntry> result = this.getVersionMap().get(name);
+        if (result == null) {
+            return null;
+        }
+
+        return result.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Deleted files are included.
+     */
+    @Override
+    public List<IndexEntry> getVersions(final String name) {
+        List<IndexEntry> result = this.getVersionMap().get(name);
+        if (result == null) {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * The map of versions is built the first time it is needed. Blocks are read from
+     * the newest to the oldest one, but inside a block a later entry is newer.
+     */
+    private Map<String, List<IndexEntry>> getVersionMap() {
+        Map<String, List<IndexEntry>> result = this.versions;
+        if (result != null) {
+            return result;
+        }
+
+        synchronized (this) {
+            if (this.versions != null) {
+                return this.versions;
+            }
+
+            result = new HashMap<>();
+            int start = 0;
+            for (int end : this.blockEnds) {
+                for (int i = end - 1; i >= start; i--) {
+                    IndexEntry entry = this.entries.get(i);
+                    result.computeIfAbsent(entry.getName(), k -> new ArrayList<>(1)).add(entry);
+                }
+
+                start = end;
+            }
+
+            this.versions = result;
+            return result;
+        }
     }
 }
@@ -0,0 +1,246 @@
+package tech.sourced.siva;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * IndexCache keeps parsed {@link Index}es in memory so they can be reused by every
+ * {@link SivaReader} opening the same siva file, see
+ * {@link SivaReaderOptions#withIndexCache(IndexCache)}. A single cache is meant to be
+ * shared by the whole process.
+ * <p>
+ * Indexes are identified by the path, size, modification time and file key of the siva
+ * file, so a file that has been modified is read again. The cache is bounded by the
+ * estimated memory used by the indexes, and the least recently used ones are evicted
+ * first. This class is thread safe.
+ */
+public final class IndexCache {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Cached> indexes =
+            new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxBytes maximum estimated size in bytes of all the cached indexes.
+     */
+    public IndexCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return maximum estimated size in bytes of all the cached indexes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return estimated size in bytes of all the cached indexes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of cached indexes.
+     */
+    public synchronized int size() {
+        return indexes.size();
+    }
+
+    /**
+     * @return number of times an index was found in the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of times an index was not found in the cache and had to be read.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return number of indexes removed from the cache to make room for new ones.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Removes all the cached indexes. Counters are not reset.
+     */
+    public synchronized void clear() {
+        indexes.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @param key key of the index.
+     * @return the cached index or null if it is not cached.
+     */
+    synchronized Index get(final Key key) {
+        Cached cached = indexes.get(key);
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return cached.index;
+    }
+
+    /**
+     * Caches an index, evicting the least recently used ones if needed. Indexes bigger
+     * than the whole cache are not cached.
+     *
+     * @param key   key of the index.
+     * @param index index to cache, it must not be modified anymore.
+     */
+    void put(final Key key, final BaseIndex index) {
+        long size = index.estimatedSize();
+        if (size > maxBytes) {
+            return;
+        }
+
+        synchronized (this) {
+            Cached previous = indexes.put(key, new Cached(index, size));
+            if (previous != null) {
+                bytes -= previous.size;
+            }
+
+            bytes += size;
+
+            Iterator<Map.Entry<Key, Cached>> it = indexes.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<Key, Cached> eldest = it.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+
+                bytes -= eldest.getValue().size;
+                evictions++;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A cached index and its estimated size.
+     */
+    private static final class Cached {
+        private final Index index;
+        private final long size;
+
+        Cached(final Index index, final long size) {
+            this.index = index;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Identity of an opened siva file, used to build the keys of its indexes.
+     */
+    static final class FileIdentity {
+        private final Path path;
+        private final Object fileKey;
+
+        /**
+         * Captures the identity of the given file. It should be done right after opening
+         * it, so it can be told apart from a different file moved to the same path later.
+         *
+         * @param path path of the siva file.
+         * @throws IOException if the attributes of the file can not be read.
+         */
+        FileIdentity(final Path path) throws IOException {
+            this.path = path.toAbsolutePath();
+            this.fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        }
+
+        /**
+         * Builds the key of an index of the file.
+         *
+         * @param size size of the opened siva file the index is read from.
+         * @param kind kind of index.
+         * @return the key, or null if the file in the path is not the opened one anymore
+         * or its size is not the given one.
+         * @throws IOException if the attributes of the file can not be read.
+         */
+        Key key(final long size, final Class<? extends BaseIndex> kind) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!Objects.equals(fileKey, attrs.fileKey()) || attrs.size() != size) {
+                return null;
+            }
+
+            return new Key(path, attrs.size(), attrs.lastModifiedTime(), fileKey, kind);
+        }
+    }
+
+    /**
+     * Key of a cached index.
+     */
+    static final class Key {
+        private final Path path;
+        private final long size;
+        private final FileTime modificationTime;
+        private final Object fileKey;
+        private final Class<? extends BaseIndex> kind;
+
+        /**
+         * @param path             absolute path of the siva file.
+         * @param size             size of the siva file.
+         * @param modificationTime last modification time of the siva file.
+         * @param fileKey          file key of the siva file, it can be null.
+         * @param kind             kind of index.
+         */
+        Key(final Path path, final long size, final FileTime modificationTime,
+            final Object fileKey, final Class<? extends BaseIndex> kind) {
+            this.path = path;
+            this.size = size;
+            this.modificationTime = modificationTime;
+            this.fileKey = fileKey;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return size == other.size
+                    && path.equals(other.path)
+                    && modificationTime.equals(other.modificationTime)
+                    && Objects.equals(fileKey, other.fileKey)
+                    && kind.equals(other.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, modificationTime, fileKey, kind);
+        }
+    }
+}
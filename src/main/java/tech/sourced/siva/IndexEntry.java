@@ -47,6 +47,30 @@ public class IndexEntry extends Header {
         this.absStart = absStart;
     }
 
+    /**
+     * Builds an IndexEntry with the raw {@link Header} properties as they are stored in the
+     * index of a siva file, which are decoded on demand.
+     *
+     * @param rawName             Entry name encoded in UTF-8.
+     * @param rawFileMode         Go file mode.
+     * @param rawModificationTime Modification time as UNIX time in nanoseconds.
+     * @param flag                supported flags @see {@link Flag}
+     * @param intStart            Offset of the file content, relative to the beginning of
+     *                            the block.
+     * @param size                size of the file content.
+     * @param crc32               CRC32.
+     * @param absStart            Offset from the beginning of the block.
+     */
+    IndexEntry(final byte[] rawName, final int rawFileMode, final long rawModificationTime,
+               final Flag flag, final long intStart, final long size, final long crc32,
+               final long absStart) {
+        super(rawName, rawFileMode, rawModificationTime, flag);
+        this.intStart = intStart;
+        this.size = size;
+        this.crc32 = crc32;
+        this.absStart = absStart;
+    }
+
     /**
      * @return Offset from the beginning of the block.
      */
@@ -0,0 +1,106 @@
+package tech.sourced.siva;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * IndexLoads keeps the index loads in progress of a siva file, so when several threads
+ * ask for the same kind of index at the same time, it is read just once and shared by
+ * all of them. Loads are forgotten as soon as they end, finished indexes are kept by
+ * {@link IndexCache}. This class is thread safe and lock free.
+ */
+final class IndexLoads {
+    private final ConcurrentMap<Key, CompletableFuture<BaseIndex>> loads =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Loads an index, or waits for the same load if another thread is already doing it.
+     *
+     * @param kind   kind of the index.
+     * @param length length of the siva file the index is read from.
+     * @param loader function that reads the index, called only if there is no load of the
+     *               same index in progress.
+     * @return the index read by this thread or by the one that was already reading it.
+     * @throws SivaException If the index can not be read, by this or by the other thread.
+     */
+    BaseIndex load(final Class<? extends BaseIndex> kind, final long length,
+                   final Loader loader) throws SivaException {
+        Key key = new Key(kind, length);
+        CompletableFuture<BaseIndex> own = new CompletableFuture<>();
+        CompletableFuture<BaseIndex> running = this.loads.putIfAbsent(key, own);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            BaseIndex index = loader.load();
+            own.complete(index);
+            return index;
+        } catch (SivaException | RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loads.remove(key, own);
+        }
+    }
+
+    private static BaseIndex await(final CompletableFuture<BaseIndex> running)
+            throws SivaException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SivaException) {
+                throw (SivaException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Reads an index.
+     */
+    @FunctionalInterface
+    interface Loader {
+        /**
+         * @return the index, already complete.
+         * @throws SivaException If the index can not be read.
+         */
+        BaseIndex load() throws SivaException;
+    }
+
+    /**
+     * Kind of index and length of the siva file it is read from.
+     */
+    private static final class Key {
+        private final Class<? extends BaseIndex> kind;
+        private final long length;
+
+        Key(final Class<? extends BaseIndex> kind, final long length) {
+            this.kind = kind;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return length == key.length && kind.equals(key.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, length);
+        }
+    }
+}
@@ -1,18 +1,28 @@
 package tech.sourced.siva;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.attribute.FileTime;
-import java.nio.file.attribute.PosixFilePermission;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.zip.CRC32;
 
 /**
  * Reader of Siva {@link Index} to retrieve {@link IndexEntry}s.
+ * <p>
+ * IndexReader is thread safe and holds no mutable state: the siva file is only read with
+ * positional reads, so any number of threads can read indexes at the same time, from the
+ * same reader or from different ones. When several threads ask the readers of the same
+ * {@link SivaReader} for the same index at the same time, it is read only once.
+ * <p>
  * There are some known issues and limitations in the implementaion
  * that you can see at:
  *
@@ -22,23 +32,48 @@ import java.util.zip.CRC32;
  * Siva Format Specification</a>
  */
 public class IndexReader {
-    private static final int INDEX_VERSION = 1;
-    private static final long INDEX_FOOTER_SIZE = 24;
-    private static final byte[] INDEX_SIGNATURE = {'I', 'B', 'A'};
+    static final int INDEX_VERSION = 1;
+    static final long INDEX_FOOTER_SIZE = 24;
+    static final byte[] INDEX_SIGNATURE = {'I', 'B', 'A'};
+    static final long INDEX_ENTRY_FIXED_SIZE = 4 * Integer.BYTES + 3 * Long.BYTES;
     private static final long READ_UINT32_MASK = 0xFFFFFFFFL;
+    private static final int READ_UINT8_MASK = 0xFF;
+    private static final long STOPPED = -1;
 
-    private final RandomAccessFile sivaFile;
+    private final FileChannel channel;
+    private final MappedRegions mappedRegions;
     private final String sivaFileName;
+    private final IndexCache indexCache;
+    private final IndexCache.FileIdentity identity;
+    private final Path sidecar;
+    private final SivaListener listener;
+    private final IndexLoads loads;
 
     /**
      * Constructs a Reader to read from a Siva {@link Index}.
      *
-     * @param sivaFile     siva file to read the index from.
-     * @param sivaFileName siva file name.
+     * @param channel       channel of the siva file to read the index from.
+     * @param mappedRegions mapped regions of the siva file, or null if it is not mapped.
+     * @param sivaFileName  siva file name.
+     * @param indexCache    cache of already read indexes, or null if there is no cache.
+     * @param identity      identity of the siva file, or null if there is no cache.
+     * @param sidecar       path of the sidecar index file, or null if it is not used.
+     * @param listener      listener of the index loads and failures.
+     * @param loads         index loads in progress of the siva file, shared by all its
+     *                      readers, or null to never share them.
      */
-    IndexReader(final RandomAccessFile sivaFile, final String sivaFileName) {
-        this.sivaFile = sivaFile;
+    IndexReader(final FileChannel channel, final MappedRegions mappedRegions,
+                final String sivaFileName, final IndexCache indexCache,
+                final IndexCache.FileIdentity identity, final Path sidecar,
+                final SivaListener listener, final IndexLoads loads) {
+        this.channel = channel;
+        this.mappedRegions = mappedRegions;
         this.sivaFileName = sivaFileName;
+        this.indexCache = indexCache;
+        this.identity = identity;
+        this.sidecar = sidecar;
+        this.listener = listener;
+        this.loads = loads;
     }
 
     /**
@@ -48,8 +83,8 @@ public class IndexReader {
      * @return Index with the last entry of each file. Delete files will not appear in this index.
      * @throws SivaException If some error happens reading or validating the index.
      */
-    public final synchronized Index getFilteredIndex() throws SivaException {
-        return this.readIndex(new FilteredIndex());
+    public final Index getFilteredIndex() throws SivaException {
+        return this.getIndex(new FilteredIndex(), null);
     }
 
     /**
@@ -59,122 +94,705 @@ public class IndexReader {
      * @return Index with all the entries in the siva file.
      * @throws SivaException If some error happens reading or validating the index.
      */
-    public final synchronized Index getCompleteIndex() throws SivaException {
-        return this.readIndex(new CompleteIndex());
+    public final Index getCompleteIndex() throws SivaException {
+        return this.getIndex(new CompleteIndex(), null);
     }
 
-    private Index readIndex(final BaseIndex index) throws SivaException {
+    /**
+     * getCompactIndex returns an index with the same entries as
+     * {@link #getFilteredIndex()}, stored in a compact layout that uses several times
+     * less memory, which is useful for siva files with millions of entries. Lookups by
+     * name take logarithmic time and entries are created every time they are requested.
+     *
+     * @return Index with the last entry of each file. Delete files will not appear in this index.
+     * @throws SivaException If some error happens reading or validating the index.
+     */
+    public final Index getCompactIndex() throws SivaException {
+        return this.getIndex(new CompactIndex(), null);
+    }
+
+    /**
+     * getFilteredIndex returns the same index as {@link #getFilteredIndex()}, but the
+     * blocks of the siva file are parsed and verified in parallel using the given executor,
+     * such as {@link java.util.concurrent.ForkJoinPool#commonPool()}. Only the footers are
+     * read sequentially to find where each block starts.
+     *
+     * @param executor executor used to parse the blocks.
+     * @return Index with the last entry of each file. Delete files will not appear in this index.
+     * @throws SivaException If some error happens reading or validating the index.
+     */
+    public final Index getFilteredIndex(final Executor executor)
+            throws SivaException {
+        return this.getIndex(new FilteredIndex(), executor);
+    }
+
+    /**
+     * getCompleteIndex returns the same index as {@link #getCompleteIndex()}, parsing and
+     * verifying the blocks of the siva file in parallel using the given executor.
+     *
+     * @param executor executor used to parse the blocks.
+     * @return Index with all the entries in the siva file.
+     * @throws SivaException If some error happens reading or validating the index.
+     * @see #getFilteredIndex(Executor)
+     */
+    public final Index getCompleteIndex(final Executor executor)
+            throws SivaException {
+        return this.getIndex(new CompleteIndex(), executor);
+    }
+
+    /**
+     * getCompactIndex returns the same index as {@link #getCompactIndex()}, parsing and
+     * verifying the blocks of the siva file in parallel using the given executor.
+     *
+     * @param executor executor used to parse the blocks.
+     * @return Index with the last entry of each file. Delete files will not appear in this index.
+     * @throws SivaException If some error happens reading or validating the index.
+     * @see #getFilteredIndex(Executor)
+     */
+    public final Index getCompactIndex(final Executor executor)
+            throws SivaException {
+        return this.getIndex(new CompactIndex(), executor);
+    }
+
+    /**
+     * visit reads the index block by block and passes every entry to the given visitor
+     * as it is read, without building an {@link Index}, so the memory used does not
+     * depend on the number of entries of the siva file. The scan stops as soon as the
+     * visitor returns false.
+     *
+     * @param visitor visitor of the entries.
+     * @return true if the whole index was visited, false if the visitor stopped the scan.
+     * @throws SivaException If some error happens reading or validating the index.
+     */
+    public final boolean visit(final IndexVisitor visitor) throws SivaException {
         try {
-            // go to the end of the file
-            long offset = this.sivaFile.length();
-            this.sivaFile.seek(offset);
-            while (true) {
-                if (this.sivaFile.getFilePointer() == 0) {
-                    break;
+            return this.walk(visitor, this.size(), 0, new LoadStats()) != STOPPED;
+        } catch (SivaException e) {
+            throw this.failed(e);
+        }
+    }
+
+    /**
+     * findEntry looks up the latest version of a single entry without reading the whole
+     * index. The blocks are walked from the newest to the oldest one until one of them
+     * has an entry with the given name. Blocks written with a name table, see
+     * {@link SivaWriterOptions#withNameTable(boolean)}, are skipped if their Bloom filter
+     * does not contain the name, and binary searched otherwise, so only a few small parts
+     * of their index are read. The index of any other block is read and parsed whole.
+     * <p>
+     * The checksums of the indexes with a name table are not verified, use
+     * {@link #getFilteredIndex()} for that. Their name tables are bound to them with their
+     * own checksum, and the entries found with them are checked against the block.
+     *
+     * @param name name of the entry.
+     * @return the latest entry with that name, or null if there is no entry with that
+     * name or its latest version is deleted.
+     * @throws SivaException If some error happens reading or validating the index.
+     */
+    public final IndexEntry findEntry(final String name) throws SivaException {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        try {
+            long endOfBlock = this.size();
+            while (endOfBlock > 0) {
+                IndexFooter indexFooter = this.readFooter(endOfBlock);
+                IndexEntry entry = this.findInBlock(key, indexFooter, endOfBlock);
+                if (entry != null) {
+                    if (entry.getFlag() == Flag.DELETE) {
+                        return null;
+                    }
+
+                    return entry;
                 }
 
-                long endOfBlock = this.sivaFile.getFilePointer();
+                endOfBlock -= indexFooter.getBlockSize();
+            }
 
-                long startOfFooter = this.sivaFile.getFilePointer() - INDEX_FOOTER_SIZE;
-                this.sivaFile.seek(startOfFooter);
+            return null;
+        } catch (BufferUnderflowException e) {
+            throw this.failed(new SivaException(sivaFileName, SivaException.TRUNCATED_INDEX, e));
+        } catch (IOException e) {
+            throw this.failed(new SivaException(sivaFileName, "Error reading index of file.", e));
+        } catch (SivaException e) {
+            throw this.failed(e);
+        }
+    }
 
-                IndexFooter indexFooter = this.readFooter();
+    /**
+     * @return the latest entry of the block with the given name, or null if there is none.
+     */
+    private IndexEntry findInBlock(final byte[] key, final IndexFooter indexFooter,
+                                   final long endOfBlock) throws IOException, SivaException {
+        BlockNameTable table = BlockNameTable.read(this, indexFooter, endOfBlock);
+        if (table == null) {
+            ByteBuffer indexBuf = this.readEntriesBlock(indexFooter, endOfBlock);
+            IndexEntry result = null;
+            for (long i = 0; i < indexFooter.getEntryCount(); i++) {
+                IndexEntry entry = this.readEntry(indexBuf, indexFooter, endOfBlock);
+                if (Arrays.equals(entry.getNameBytes(), key)) {
+                    result = entry;
+                }
+            }
 
-                long startOfIndex = endOfBlock - INDEX_FOOTER_SIZE
-                        - indexFooter.getIndexSize();
-                this.sivaFile.seek(startOfIndex);
+            return result;
+        }
 
-                this.readSignature();
-                this.readVersion();
+        if (!table.mightContain(key)) {
+            return null;
+        }
 
-                for (long i = 0; i < indexFooter.getEntryCount(); i++) {
-                    index.add(this.readEntry(indexFooter, endOfBlock));
+        long offset = table.find(key);
+        if (offset < 0) {
+            return null;
+        }
+
+        long startOfIndex = endOfBlock - INDEX_FOOTER_SIZE - indexFooter.getIndexSize();
+        IndexEntry entry = this.readEntry(
+                this.readRange(startOfIndex + offset, INDEX_ENTRY_FIXED_SIZE + key.length),
+                indexFooter, endOfBlock);
+        table.check(entry, key);
+        return entry;
+    }
+
+    /**
+     * refresh brings up to date an index previously returned by this reader, or by
+     * another reader of the same siva file. Siva files are append only, so just the blocks
+     * appended after the index was read are parsed and merged into a copy of it, keeping
+     * the same semantics and kind of the given index, even if it was mapped from a sidecar
+     * file. If the file has been changed in a different way, the whole index is read again.
+     *
+     * @param index index obtained from {@link #getFilteredIndex()},
+     *              {@link #getCompleteIndex()} or {@link #getCompactIndex()}.
+     * @return the given index if the file has not changed, or a new index with the
+     * current content of the file.
+     * @throws SivaException If some error happens reading or validating the index.
+     */
+    public final Index refresh(final Index index) throws SivaException {
+        if (!(index instanceof BaseIndex)) {
+            throw new IllegalArgumentException("Only indexes read by an IndexReader"
+                    + " can be refreshed");
+        }
+
+        try {
+            return this.refreshIndex((BaseIndex) index);
+        } catch (SivaException e) {
+            throw this.failed(e);
+        }
+    }
+
+    private Index refreshIndex(final BaseIndex older) throws SivaException {
+        long length = this.size();
+        if (length == older.getSivaLength()) {
+            return older;
+        }
+
+        IndexCache.Key key = this.cacheKey(length, older.getKind());
+        if (key != null) {
+            Index cached = this.indexCache.get(key);
+            if (cached != null) {
+                this.listener.indexCacheHit(sivaFileName);
+                return cached;
+            }
+        }
+
+        BuildableIndex refreshed = this.readAppended(older, length);
+        if (refreshed == null) {
+            refreshed = older.newIndex();
+            this.readIndex(refreshed, length, 0);
+        }
+
+        refreshed.endIndex();
+
+        if (key != null) {
+            this.indexCache.put(key, refreshed);
+        }
+
+        return refreshed;
+    }
+
+    /**
+     * Reads the blocks appended after the given index was read and merges them with it.
+     *
+     * @return the merged index, or null if the file was not just appended.
+     */
+    private BuildableIndex readAppended(final BaseIndex older, final long length) {
+        if (length < older.getSivaLength()) {
+            return null;
+        }
+
+        BuildableIndex index = older.newIndex();
+        try {
+            if (!this.readIndex(index, length, older.getSivaLength())) {
+                return null;
+            }
+        } catch (SivaException e) {
+            // the blocks do not end where the older index started
+            return null;
+        }
+
+        index.mergeOlder(older);
+        return index;
+    }
+
+    private Index getIndex(final BuildableIndex index, final Executor executor)
+            throws SivaException {
+        try {
+            return this.loadIndex(index, executor);
+        } catch (SivaException e) {
+            throw this.failed(e);
+        }
+    }
+
+    private Index loadIndex(final BuildableIndex index, final Executor executor)
+            throws SivaException {
+        long length = this.size();
+        IndexCache.Key key = this.cacheKey(length, index.getKind());
+        if (key != null) {
+            Index cached = this.indexCache.get(key);
+            if (cached != null) {
+                this.listener.indexCacheHit(sivaFileName);
+                return cached;
+            }
+        }
+
+        if (this.loads == null) {
+            return this.readWholeIndex(index, length, executor, key);
+        }
+
+        // threads asking for the same index at the same time share a single load
+        return this.loads.load(index.getKind(), length,
+                () -> this.readWholeIndex(index, length, executor, key));
+    }
+
+    /**
+     * Reads the whole index from the sidecar file or the siva file, and puts it in the
+     * cache.
+     */
+    private BaseIndex readWholeIndex(final BuildableIndex index, final long length,
+                                     final Executor executor, final IndexCache.Key key)
+            throws SivaException {
+        long footerCrc = -1;
+        BaseIndex result = null;
+        if (this.usesSidecar(index, length)) {
+            footerCrc = this.readLastFooterCrc(length);
+            result = this.openSidecar(index, length, footerCrc);
+            if (result != null) {
+                this.listener.indexCacheHit(sivaFileName);
+            }
+        }
+
+        if (result == null) {
+            if (executor == null) {
+                this.readIndex(index, length, 0);
+            } else {
+                this.readIndexInParallel(index, length, executor);
+            }
+
+            index.endIndex();
+            if (footerCrc >= 0) {
+                this.writeSidecar(index, length, footerCrc);
+            }
+
+            result = index;
+        }
+
+        if (key != null) {
+            this.indexCache.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Only filtered indexes of siva files with some block are kept in sidecar files.
+     */
+    private boolean usesSidecar(final BuildableIndex index, final long length) {
+        return this.sidecar != null && length >= INDEX_FOOTER_SIZE
+                && (index instanceof FilteredIndex || index instanceof CompactIndex);
+    }
+
+    private long readLastFooterCrc(final long length) throws SivaException {
+        ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
+        try {
+            this.readFully(buf, length - Integer.BYTES);
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error reading index of file.", e);
+        }
+
+        buf.flip();
+        return castUnsignedIntToLong(buf.getInt());
+    }
+
+    private BaseIndex openSidecar(final BuildableIndex index, final long length,
+                                  final long footerCrc) {
+        try {
+            return SidecarIndex.open(index, this.sidecar, length, footerCrc);
+        } catch (IOException e) {
+            // an unreadable sidecar file is written again
+            return null;
+        }
+    }
+
+    private void writeSidecar(final BaseIndex index, final long length, final long footerCrc) {
+        try {
+            SidecarIndex.write(this.sidecar, index, length, footerCrc);
+        } catch (IOException e) {
+            // the sidecar file is just an optimization, the index is still valid without it
+            return;
+        }
+    }
+
+    private long size() throws SivaException {
+        try {
+            return this.channel.size();
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error reading size of file.", e);
+        }
+    }
+
+    private IndexCache.Key cacheKey(final long length, final Class<? extends BaseIndex> kind)
+            throws SivaException {
+        if (this.indexCache == null) {
+            return null;
+        }
+
+        try {
+            // it is null if the file has been replaced or is being written
+            return this.identity.key(length, kind);
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error reading attributes of file.", e);
+        }
+    }
+
+    /**
+     * Reads the blocks of the siva file from the given end of block, walking backwards
+     * until the given position is reached.
+     *
+     * @return false if a block starts before the given position, which means that the
+     * file is not the same anymore before that position.
+     */
+    private boolean readIndex(final BuildableIndex index, final long length, final long until)
+            throws SivaException {
+        long start = System.nanoTime();
+        LoadStats stats = new LoadStats();
+        long end = this.walk(new IndexLoader(index), length, until, stats);
+        index.setSivaLength(length);
+        this.loaded(start, stats);
+        return end == until;
+    }
+
+    private void loaded(final long start, final LoadStats stats) {
+        this.listener.indexLoaded(sivaFileName, System.nanoTime() - start,
+                stats.blocks, stats.entries, stats.bytes);
+    }
+
+    private SivaException failed(final SivaException e) {
+        this.listener.failed(sivaFileName, e);
+        return e;
+    }
+
+    /**
+     * Visits the blocks of the siva file from the given end of block, walking backwards
+     * until the given position is reached or the visitor stops.
+     *
+     * @return the position where the walk ended, or {@link #STOPPED} if the visitor
+     * stopped it.
+     */
+    private long walk(final IndexVisitor visitor, final long length, final long until,
+                      final LoadStats stats) throws SivaException {
+        try {
+            long endOfBlock = length;
+            while (endOfBlock > until) {
+                IndexFooter indexFooter = this.readFooter(endOfBlock);
+                ByteBuffer indexBuf = this.readEntriesBlock(indexFooter, endOfBlock);
+                stats.add(indexFooter);
+
+                long startOfBlock = endOfBlock - indexFooter.getBlockSize();
+                if (!visitor.startIndexBlock(startOfBlock, indexFooter.getEntryCount())) {
+                    return STOPPED;
                 }
 
-                index.endIndexBlock();
+                for (long i = 0; i < indexFooter.getEntryCount(); i++) {
+                    if (!visitor.visitEntry(this.readEntry(indexBuf, indexFooter, endOfBlock))) {
+                        return STOPPED;
+                    }
+                }
 
-                checkIndexCrc(indexFooter, startOfIndex);
+                if (!visitor.endIndexBlock()) {
+                    return STOPPED;
+                }
 
                 // go to the next index
-                long nextEndOfBlock = this.sivaFile.getFilePointer() - indexFooter.getBlockSize()
-                        + INDEX_FOOTER_SIZE;
-
-                this.sivaFile.seek(nextEndOfBlock);
+                endOfBlock = startOfBlock;
             }
 
-            return index;
+            return endOfBlock;
+        } catch (BufferUnderflowException e) {
+            throw new SivaException(sivaFileName, SivaException.TRUNCATED_INDEX, e);
         } catch (IOException e) {
             throw new SivaException(sivaFileName, "Error reading index of file.", e);
         }
     }
 
-    private IndexFooter readFooter() throws IOException, SivaException {
-        long entryCount = castUnsignedIntToLong(this.sivaFile.readInt());
+    /**
+     * Reads the whole index, walking first through the footers to find all the blocks,
+     * and then parsing the blocks in parallel. The parsed blocks are added to the index
+     * in the same order they would have been read sequentially.
+     */
+    private void readIndexInParallel(final BuildableIndex index, final long length,
+                                     final Executor executor) throws SivaException {
+        long start = System.nanoTime();
+        LoadStats stats = new LoadStats();
+        List<CompletableFuture<List<IndexEntry>>> blocks = new ArrayList<>();
+        try {
+            long endOfBlock = length;
+            while (endOfBlock > 0) {
+                IndexFooter indexFooter = this.readFooter(endOfBlock);
+                stats.add(indexFooter);
+                long end = endOfBlock;
+                blocks.add(CompletableFuture.supplyAsync(
+                        () -> this.parseBlock(indexFooter, end), executor));
+
+                endOfBlock -= indexFooter.getBlockSize();
+            }
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error reading index of file.", e);
+        }
+
+        for (CompletableFuture<List<IndexEntry>> block : blocks) {
+            List<IndexEntry> entries;
+            try {
+                entries = block.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SivaException) {
+                    throw (SivaException) e.getCause();
+                }
+
+                throw e;
+            }
+
+            for (IndexEntry entry : entries) {
+                index.add(entry);
+            }
+
+            index.endIndexBlock();
+        }
+
+        index.setSivaLength(length);
+        this.loaded(start, stats);
+    }
+
+    /**
+     * Reads, verifies and parses the index of a block.
+     *
+     * @throws CompletionException with a {@link SivaException} as cause if the block
+     * can not be read or it is not valid.
+     */
+    private List<IndexEntry> parseBlock(final IndexFooter indexFooter, final long endOfBlock) {
+        try {
+            ByteBuffer indexBuf = this.readEntriesBlock(indexFooter, endOfBlock);
+            List<IndexEntry> entries = new ArrayList<>();
+            for (long i = 0; i < indexFooter.getEntryCount(); i++) {
+                entries.add(this.readEntry(indexBuf, indexFooter, endOfBlock));
+            }
+
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new CompletionException(
+                    new SivaException(sivaFileName, SivaException.TRUNCATED_INDEX, e));
+        } catch (IOException e) {
+            throw new CompletionException(
+                    new SivaException(sivaFileName, "Error reading index of file.", e));
+        } catch (SivaException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Reads the index of a block and verifies its checksum, signature and version.
+     *
+     * @return the index of the block, positioned at its first entry.
+     */
+    private ByteBuffer readEntriesBlock(final IndexFooter indexFooter, final long endOfBlock)
+            throws IOException, SivaException {
+        long startOfIndex = endOfBlock - INDEX_FOOTER_SIZE - indexFooter.getIndexSize();
+
+        // the whole index of the block is read at once, parsed and
+        // verified from memory
+        ByteBuffer indexBuf = this.readIndexBlock(indexFooter, startOfIndex);
+        checkIndexCrc(indexFooter, indexBuf);
+
+        this.readSignature(indexBuf);
+        this.readVersion(indexBuf);
+        return indexBuf;
+    }
+
+    /**
+     * Reads and validates the footer of the block ending at the given position.
+     *
+     * @param endOfBlock absolute position of the end of the block.
+     * @return the footer of the block.
+     * @throws IOException   If the footer can not be read.
+     * @throws SivaException If the footer is not valid.
+     */
+    final IndexFooter readFooter(final long endOfBlock) throws IOException, SivaException {
+        if (endOfBlock < INDEX_FOOTER_SIZE) {
+            throw new SivaException(sivaFileName, SivaException.INVALID_FOOTER);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) INDEX_FOOTER_SIZE);
+        this.readFully(buf, endOfBlock - INDEX_FOOTER_SIZE);
+        buf.flip();
+
+        long entryCount = castUnsignedIntToLong(buf.getInt());
 
-        long indexSize = this.sivaFile.readLong();
+        long indexSize = buf.getLong();
         checkUnsignedLongs(indexSize, "At Index footer, index size: ");
 
-        long blockSize = this.sivaFile.readLong();
+        long blockSize = buf.getLong();
         checkUnsignedLongs(blockSize, "At Index footer, block size: ");
 
-        long crc32 = castUnsignedIntToLong(this.sivaFile.readInt());
+        long crc32 = castUnsignedIntToLong(buf.getInt());
+
+        if (indexSize > blockSize - INDEX_FOOTER_SIZE || blockSize > endOfBlock) {
+            throw new SivaException(sivaFileName, SivaException.INVALID_FOOTER);
+        }
 
         return new IndexFooter(entryCount, indexSize, blockSize, crc32);
     }
 
-    private void readSignature() throws IOException, SivaException {
+    /**
+     * Reads the index of a block, without verifying it.
+     *
+     * @param footer       footer of the block.
+     * @param startOfIndex absolute position of the index of the block.
+     * @return the index of the block, starting at its signature.
+     * @throws IOException   If the index can not be read.
+     * @throws SivaException If the index is too big to be read at once.
+     */
+    final ByteBuffer readIndexBlock(final IndexFooter footer, final long startOfIndex)
+            throws IOException, SivaException {
+
+        // The biggest length allowed by the JVM for a buffer is (2^31)-1 bytes.
+        if (footer.getIndexSize() > MappedRegions.REGION_SIZE) {
+            throw new SivaException(sivaFileName, SivaException.INDEX_TOO_BIG);
+        }
+
+        if (this.mappedRegions != null) {
+            return this.mappedRegions.slice(startOfIndex, footer.getIndexSize());
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) footer.getIndexSize());
+        this.readFully(buf, startOfIndex);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Reads a small range of the siva file, or slices it if the file is memory mapped.
+     *
+     * @param position absolute position of the range.
+     * @param size     size of the range.
+     * @return buffer with the range, from its position to its limit.
+     * @throws IOException If the range can not be read.
+     */
+    final ByteBuffer readRange(final long position, final long size) throws IOException {
+        if (this.mappedRegions != null) {
+            return this.mappedRegions.slice(position, size);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        this.readFully(buf, position);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @return name of the siva file.
+     */
+    final String getSivaFileName() {
+        return sivaFileName;
+    }
+
+    private void readFully(final ByteBuffer buf, final long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int n = this.channel.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+
+            pos += n;
+        }
+    }
+
+    private void readSignature(final ByteBuffer buf) throws SivaException {
         byte[] signature = new byte[INDEX_SIGNATURE.length];
-        this.sivaFile.readFully(signature);
+        buf.get(signature);
 
         if (!Arrays.equals(signature, INDEX_SIGNATURE)) {
             throw new SivaException(sivaFileName, "Invalid index signature.");
         }
     }
 
-    private void readVersion() throws IOException, SivaException {
-        int version = this.sivaFile.readUnsignedByte();
+    private void readVersion(final ByteBuffer buf) throws SivaException {
+        int version = buf.get() & READ_UINT8_MASK;
 
         if (version != INDEX_VERSION) {
             throw new SivaException(sivaFileName, "Invalid index version.");
         }
     }
 
-    private IndexEntry readEntry(final IndexFooter indexFooter,
-                                 final long endOfBlock) throws IOException, SivaException {
+    /**
+     * Reads an entry without decoding its name, mode and modification time, which are
+     * decoded only if they are requested.
+     *
+     * @param buf         index of the block, positioned at the entry.
+     * @param indexFooter footer of the block.
+     * @param endOfBlock  absolute position of the end of the block.
+     * @return the entry.
+     * @throws SivaException If the entry is not valid.
+     */
+    final IndexEntry readEntry(final ByteBuffer buf, final IndexFooter indexFooter,
+                               final long endOfBlock) throws SivaException {
 
-        int entryNameLength = this.sivaFile.readInt();
+        int entryNameLength = buf.getInt();
         if (entryNameLength < 0) {
             throw new SivaException(sivaFileName, SivaException.FILE_NAME_LENGTH);
         }
 
-        byte[] nameBuf = new byte[entryNameLength];
-        this.sivaFile.readFully(nameBuf);
-        String name = new String(nameBuf, "UTF-8");
+        // a corrupted length must not allocate more than what is left of the index
+        if (entryNameLength > buf.remaining()) {
+            throw new SivaException(sivaFileName, SivaException.TRUNCATED_INDEX);
+        }
 
-        int rawFileMode = this.sivaFile.readInt();
-        Set<PosixFilePermission> fileMode = FileModeUtils.posixFilePermissions(rawFileMode);
+        byte[] name = new byte[entryNameLength];
+        buf.get(name);
 
-        long rawModTime = this.sivaFile.readLong();
-        FileTime modificationTime = FileTime.from(rawModTime, TimeUnit.NANOSECONDS);
+        int rawFileMode = buf.getInt();
+        long rawModTime = buf.getLong();
 
-        long fileOffset = this.sivaFile.readLong();
-        checkUnsignedLongs(fileOffset, "At Index Entry " + name + ", file offset: ");
+        long fileOffset = buf.getLong();
+        if (fileOffset < 0) {
+            throw this.invalidEntry(name, "file offset: ");
+        }
 
-        long fileSize = this.sivaFile.readLong();
-        checkUnsignedLongs(fileSize, "At Index Entry " + name + ", file size: ");
+        long fileSize = buf.getLong();
+        if (fileSize < 0) {
+            throw this.invalidEntry(name, "file size: ");
+        }
 
-        int rawCrc32 = this.sivaFile.readInt();
+        int rawCrc32 = buf.getInt();
         long crc32 = castUnsignedIntToLong(rawCrc32);
 
-        int rawFlag = this.sivaFile.readInt();
+        int rawFlag = buf.getInt();
         Flag flag = Flag.fromInteger(rawFlag);
 
         long beginOfEntry = (endOfBlock - indexFooter.getBlockSize()) + fileOffset;
 
         return new IndexEntry(
                 name,
-                fileMode,
-                modificationTime,
+                rawFileMode,
+                rawModTime,
                 flag,
                 fileOffset,
                 fileSize,
@@ -183,6 +801,12 @@ public class IndexReader {
         );
     }
 
+    private SivaException invalidEntry(final byte[] name, final String field) {
+        return new SivaException(sivaFileName, "At Index Entry "
+                + new String(name, StandardCharsets.UTF_8) + ", " + field
+                + SivaException.UNSIGNED_LONG);
+    }
+
     private long castUnsignedIntToLong(final int n) {
         return n & READ_UINT32_MASK;
     }
@@ -193,41 +817,60 @@ public class IndexReader {
         }
     }
 
-    private void checkIndexCrc(final IndexFooter footer, final long startOfIndex)
-            throws IOException, SivaException {
-
-        // The checksum object could be fed with more than (2^31)-1 bytes
-        // which is the biggest length allowed by the JVM for a data structure.
-
+    /**
+     * Checks the index of a block against the CRC32 of its footer.
+     *
+     * @param footer   footer of the block.
+     * @param indexBuf index of the block, from its position to its limit.
+     * @throws SivaException If the checksum does not match.
+     */
+    final void checkIndexCrc(final IndexFooter footer, final ByteBuffer indexBuf)
+            throws SivaException {
         CRC32 checksum = new CRC32();
-
-        long mapTimes = footer.getIndexSize() / Integer.MAX_VALUE;
-        long start = startOfIndex;
-        MappedByteBuffer buf;
-        for (long i = 0; i < mapTimes; i++) {
-            buf = this.sivaFile.getChannel().map(
-                    FileChannel.MapMode.READ_ONLY,
-                    start,
-                    Integer.MAX_VALUE
-            );
-
-            checksum.update(buf);
-            start += Integer.MAX_VALUE;
-        }
-
-        long remaining = footer.getIndexSize() % Integer.MAX_VALUE;
-        buf = this.sivaFile.getChannel().map(
-                FileChannel.MapMode.READ_ONLY,
-                start,
-                remaining
-        );
-
-        checksum.update(buf);
+        checksum.update(indexBuf.duplicate());
 
         long crc = checksum.getValue();
         if (crc != footer.getCrc32()) {
+            this.listener.crcMismatch(sivaFileName, null);
             throw new SivaException(sivaFileName, SivaException.INVALID_CRC);
         }
     }
-}
 
+    /**
+     * Blocks, entries and bytes of the indexes and footers read by an index load.
+     */
+    private static final class LoadStats {
+        private long blocks;
+        private long entries;
+        private long bytes;
+
+        void add(final IndexFooter footer) {
+            this.blocks++;
+            this.entries += footer.getEntryCount();
+            this.bytes += footer.getIndexSize() + INDEX_FOOTER_SIZE;
+        }
+    }
+
+    /**
+     * Visitor that adds all the entries to an index.
+     */
+    private static final class IndexLoader implements IndexVisitor {
+        private final BuildableIndex index;
+
+        IndexLoader(final BuildableIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean visitEntry(final IndexEntry entry) {
+            this.index.add(entry);
+            return true;
+        }
+
+        @Override
+        public boolean endIndexBlock() {
+            this.index.endIndexBlock();
+            return true;
+        }
+    }
+}
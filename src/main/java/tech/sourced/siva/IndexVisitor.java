@@ -0,0 +1,41 @@
+package tech.sourced.siva;
+
+/**
+ * IndexVisitor receives the {@link IndexEntry}s of a siva file as they are read by
+ * {@link IndexReader#visit(IndexVisitor)}, without keeping them in memory.
+ * <p>
+ * Blocks are visited from the newest to the oldest one, the same order in which they are
+ * read from the end of the file, and the entries of each block in the order they are
+ * stored, so inside a block a later entry is newer. Deleted files are visited as entries
+ * with the {@link Flag#DELETE} flag. Any method can return false to stop the scan.
+ */
+public interface IndexVisitor {
+
+    /**
+     * Called before the entries of each block are visited.
+     *
+     * @param blockStart absolute position of the block in the siva file.
+     * @param entryCount number of entries in the block.
+     * @return true to continue, false to stop the scan.
+     */
+    default boolean startIndexBlock(final long blockStart, final long entryCount) {
+        return true;
+    }
+
+    /**
+     * Called for each entry of the block being visited.
+     *
+     * @param entry entry read from the index.
+     * @return true to continue, false to stop the scan.
+     */
+    boolean visitEntry(IndexEntry entry);
+
+    /**
+     * Called when all the entries of a block have been visited.
+     *
+     * @return true to continue, false to stop the scan.
+     */
+    default boolean endIndexBlock() {
+        return true;
+    }
+}
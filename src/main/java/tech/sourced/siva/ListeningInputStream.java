@@ -0,0 +1,90 @@
+package tech.sourced.siva;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ListeningInputStream counts the bytes read from the content of an entry, and reports
+ * them to a {@link SivaListener} with the time since the stream was opened when it is
+ * closed.
+ */
+final class ListeningInputStream extends FilterInputStream {
+    private final IndexEntry entry;
+    private final String sivaFileName;
+    private final SivaListener listener;
+    private final long start;
+    private long bytes;
+    private boolean closed;
+
+    /**
+     * @param in           stream with the content of the entry.
+     * @param entry        entry being read.
+     * @param sivaFileName siva file name.
+     * @param listener     listener of the entry reads.
+     */
+    ListeningInputStream(final InputStream in, final IndexEntry entry,
+                         final String sivaFileName, final SivaListener listener) {
+        super(in);
+        this.entry = entry;
+        this.sivaFileName = sivaFileName;
+        this.listener = listener;
+        this.start = System.nanoTime();
+        listener.entryOpened(sivaFileName, entry);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            bytes++;
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            bytes += n;
+        }
+
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        long skipped = in.skip(n);
+        if (skipped > 0) {
+            bytes += skipped;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(final int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        in.close();
+        listener.entryClosed(sivaFileName, entry, bytes, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,117 @@
+package tech.sourced.siva;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedRegions keeps a whole file memory mapped as a sequence of read-only regions.
+ * A single {@link MappedByteBuffer} can not be bigger than (2^31)-1 bytes, so bigger
+ * files are split in several regions of that size.
+ */
+final class MappedRegions {
+    /**
+     * Maximum size of each one of the mapped regions.
+     */
+    static final long REGION_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final long regionSize;
+    private final long length;
+
+    /**
+     * Maps the current content of the channel using regions of the given size.
+     *
+     * @param channel    channel to map.
+     * @param regionSize size of each region, it can not be bigger than {@link #REGION_SIZE}.
+     * @throws IOException if the channel can not be mapped.
+     */
+    MappedRegions(final FileChannel channel, final long regionSize) throws IOException {
+        this.channel = channel;
+        this.regionSize = regionSize;
+        this.length = channel.size();
+        this.regions = new MappedByteBuffer[(int) ((length + regionSize - 1) / regionSize)];
+
+        long start = 0;
+        for (int i = 0; i < regions.length; i++) {
+            long size = Math.min(regionSize, length - start);
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            start += size;
+        }
+    }
+
+    /**
+     * @return mapped length in bytes.
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns a read-only buffer with the given range. If the range is split between two
+     * regions or it was not mapped (the file has grown), that range is mapped on its own.
+     *
+     * @param start absolute position of the range.
+     * @param size  size of the range, it can not be bigger than {@link #REGION_SIZE}.
+     * @return read-only buffer with the content of the range.
+     * @throws IOException if the range had to be mapped and it failed.
+     */
+    ByteBuffer slice(final long start, final long size) throws IOException {
+        int region = (int) (start / regionSize);
+        long offset = start % regionSize;
+        if (start + size <= length && offset + size <= regionSize) {
+            return slice(region, (int) offset, (int) size);
+        }
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+
+    /**
+     * Returns the read-only buffers that, one after the other, contain the given range.
+     * Ranges of any size are supported.
+     *
+     * @param start absolute position of the range.
+     * @param size  size of the range.
+     * @return read-only buffers with the content of the range.
+     * @throws IOException if part of the range was not mapped and mapping it failed.
+     */
+    ByteBuffer[] slices(final long start, final long size) throws IOException {
+        if (start + size > length) {
+            ByteBuffer[] result = new ByteBuffer[(int) ((size + regionSize - 1) / regionSize)];
+            long pos = start;
+            for (int i = 0; i < result.length; i++) {
+                long len = Math.min(regionSize, start + size - pos);
+                result[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                pos += len;
+            }
+
+            return result;
+        }
+
+        int first = (int) (start / regionSize);
+        int last = (int) (Math.max(start, start + size - 1) / regionSize);
+        ByteBuffer[] result = new ByteBuffer[last - first + 1];
+        long pos = start;
+        for (int i = 0; i < result.length; i++) {
+            long offset = pos % regionSize;
+            long len = Math.min(regionSize - offset, start + size - pos);
+            result[i] = slice(first + i, (int) offset, (int) len);
+            pos += len;
+        }
+
+        return result;
+    }
+
+    private ByteBuffer slice(final int region, final int offset, final int size) {
+        if (size == 0) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+
+        ByteBuffer buf = regions[region].duplicate();
+        buf.position(offset);
+        buf.limit(offset + size);
+        return buf.slice();
+    }
+}
@@ -2,16 +2,32 @@ package tech.sourced.siva;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * RangeInputStream is an InputStream that provides only the
  * specified amount of data from a bigger InputStream.
+ * <p>
+ * When it is built on top of a {@link FileChannel} it uses positional reads and keeps its
+ * own cursor, so several RangeInputStreams can read concurrently from the same channel
+ * without interfering with each other. In that case skipping only moves the cursor, and
+ * {@link #transferTo(WritableByteChannel)} sends the range with
+ * {@link FileChannel#transferTo}, which avoids copying it through the heap.
  */
 public class RangeInputStream extends InputStream {
     private static final int READ_MASK = 0xFF;
+    private static final int READ_AHEAD_SIZE = 8192;
+    private static final int TRANSFER_BUFFER_SIZE = 8192;
 
     private final InputStream parent;
+    private final FileChannel channel;
+    private long position;
     private long remaining;
+    private ByteBuffer readAhead;
 
     /**
      * InputStream that will provide only the specified size of the provided InputStream
@@ -24,33 +40,249 @@ public class RangeInputStream extends InputStream {
             final InputStream parent,
             final long size) {
         this.parent = parent;
+        this.channel = null;
+        remaining = size;
+    }
+
+    /**
+     * InputStream that will provide only the specified range of the provided channel.
+     * The channel position is never changed, so the same channel can be shared by many
+     * streams and threads at the same time.
+     *
+     * @param channel The channel where the data is coming from.
+     * @param start   Absolute position in the channel of the first byte to read.
+     * @param size    Size of bytes to read from.
+     */
+    public RangeInputStream(
+            final FileChannel channel,
+            final long start,
+            final long size) {
+        this.parent = null;
+        this.channel = channel;
+        this.position = start;
         remaining = size;
     }
 
     @Override
     public final int read() throws IOException {
-        remaining--;
-        if (remaining >= 0) {
-            return parent.read() & READ_MASK;
-        } else {
+        if (channel != null) {
+            return readFromChannel();
+        }
+
+        if (remaining <= 0) {
             return -1;
         }
+
+        int b = parent.read();
+        if (b >= 0) {
+            remaining--;
+        }
+
+        return b;
     }
 
     @Override
     public final int read(final byte[] b, final int off, final int len) throws IOException {
+        if (channel != null) {
+            return readFromChannel(b, off, len);
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
         if (remaining <= 0) {
             // we already read everything
             return -1;
-        } else if (remaining - len <= 0) {
-            // we need to change the len that we are going to read
-            int bytesRead = parent.read(b, off, (int) remaining);
-            remaining = 0;
+        }
+
+        int bytesRead = parent.read(b, off, (int) Math.min(len, remaining));
+        if (bytesRead > 0) {
+            remaining -= bytesRead;
+        }
+
+        return bytesRead;
+    }
+
+    /**
+     * {@inheritDoc}
+     * When the stream reads from a channel, it never skips past the end of the range and
+     * nothing is read, only the position is moved.
+     */
+    @Override
+    public final long skip(final long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+
+        if (channel == null) {
+            long skipped = parent.skip(Math.min(n, remaining));
+            if (skipped > 0) {
+                remaining -= skipped;
+            }
+
+            return skipped;
+        }
+
+        long skipped = 0;
+        if (readAhead != null && readAhead.hasRemaining()) {
+            skipped = Math.min(n, readAhead.remaining());
+            readAhead.position(readAhead.position() + (int) skipped);
+        }
+
+        long step = Math.min(n - skipped, remaining);
+        position += step;
+        remaining -= step;
+        return skipped + step;
+    }
+
+    /**
+     * {@inheritDoc}
+     * When the stream reads from a channel, it is the number of bytes left in the range.
+     */
+    @Override
+    public final int available() throws IOException {
+        if (channel == null) {
+            return (int) Math.min(parent.available(), remaining);
+        }
+
+        long available = remaining;
+        if (readAhead != null) {
+            available += readAhead.remaining();
+        }
+
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads all the bytes left in the range and writes them to the given stream.
+     *
+     * @param out the output stream.
+     * @return the number of bytes transferred.
+     * @throws IOException If an I/O error occurs when reading or writing.
+     * @see #transferTo(WritableByteChannel)
+     */
+    public final long transferTo(final OutputStream out) throws IOException {
+        if (channel == null) {
+            byte[] buf = new byte[TRANSFER_BUFFER_SIZE];
+            long transferred = 0;
+            int n;
+            while ((n = this.read(buf, 0, buf.length)) > 0) {
+                out.write(buf, 0, n);
+                transferred += n;
+            }
+
+            return transferred;
+        }
+
+        return this.transferTo(Channels.newChannel(out));
+    }
+
+    /**
+     * Reads all the bytes left in the range and writes them to the given channel. When
+     * the stream reads from a {@link FileChannel}, the bytes are sent with
+     * {@link FileChannel#transferTo}, so sending them to a file or a socket can be done
+     * without copying them. The target channel must be in blocking mode.
+     *
+     * @param target the target channel.
+     * @return the number of bytes transferred.
+     * @throws IOException If an I/O error occurs when reading or writing.
+     */
+    public final long transferTo(final WritableByteChannel target) throws IOException {
+        if (channel == null) {
+            return this.transferTo(Channels.newOutputStream(target));
+        }
+
+        long transferred = 0;
+        if (readAhead != null) {
+            while (readAhead.hasRemaining()) {
+                transferred += target.write(readAhead);
+            }
+        }
+
+        while (remaining > 0) {
+            long n = channel.transferTo(position, remaining, target);
+            if (n <= 0 && position >= channel.size()) {
+                // the range goes past the end of the file
+                break;
+            }
+
+            position += n;
+            remaining -= n;
+            transferred += n;
+        }
+
+        return transferred;
+    }
+
+    private int readFromChannel() throws IOException {
+        if (readAhead == null || !readAhead.hasRemaining()) {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            if (readAhead == null) {
+                readAhead = ByteBuffer.allocate((int) Math.min(READ_AHEAD_SIZE, remaining));
+            }
+
+            readAhead.clear();
+            if (readAhead.capacity() > remaining) {
+                readAhead.limit((int) remaining);
+            }
+
+            if (fill(readAhead) <= 0) {
+                return -1;
+            }
+
+            readAhead.flip();
+        }
+
+        return readAhead.get() & READ_MASK;
+    }
+
+    private int readFromChannel(final byte[] b, final int off, final int len)
+            throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int bytesRead = 0;
+        if (readAhead != null && readAhead.hasRemaining()) {
+            bytesRead = Math.min(len, readAhead.remaining());
+            readAhead.get(b, off, bytesRead);
+            if (bytesRead == len) {
+                return bytesRead;
+            }
+        }
+
+        if (remaining <= 0) {
+            if (bytesRead == 0) {
+                return -1;
+            }
+
             return bytesRead;
-        } else {
-            // we can read all the len
-            remaining = remaining - len;
-            return parent.read(b, off, len);
         }
+
+        int toRead = (int) Math.min(len - bytesRead, remaining);
+        int n = fill(ByteBuffer.wrap(b, off + bytesRead, toRead));
+        if (n > 0) {
+            bytesRead += n;
+        }
+
+        if (bytesRead == 0) {
+            return -1;
+        }
+
+        return bytesRead;
+    }
+
+    private int fill(final ByteBuffer dst) throws IOException {
+        int n = channel.read(dst, position);
+        if (n > 0) {
+            position += n;
+            remaining -= n;
+        }
+
+        return n;
     }
 }
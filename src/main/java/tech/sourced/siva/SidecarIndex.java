@@ -0,0 +1,371 @@
+package tech.sourced.siva;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SidecarIndex is a filtered {@link Index} persisted in a file next to the siva file, so
+ * it can be memory mapped when the siva file is opened instead of reading all its blocks.
+ * The sidecar file keeps the length of the siva file and the CRC32 in the footer of its
+ * last block, and it is only used while both match and all its entries point inside the
+ * sidecar and the siva files.
+ * <p>
+ * The layout of the sidecar file is, in big endian:
+ * <pre>
+ * magic "SIVAIDX" and version 2           8 bytes
+ * length of the siva file                 8 bytes
+ * CRC32 in the footer of the last block   4 bytes
+ * number of entries                       4 bytes
+ * length of the names                     8 bytes
+ * entries sorted by UTF-8 name, each one:
+ *   offset and length of the name         4 + 4 bytes
+ *   mode and CRC32                        4 + 4 bytes
+ *   modification time                     8 bytes
+ *   absolute and relative offset, size    8 + 8 + 8 bytes
+ *   flag                                  4 bytes
+ * names encoded in UTF-8
+ * </pre>
+ */
+final class SidecarIndex extends BaseIndex {
+    /**
+     * Extension added to the name of the siva file to get the name of its sidecar file.
+     */
+    static final String EXTENSION = ".idx";
+
+    private static final byte[] MAGIC = {'S', 'I', 'V', 'A', 'I', 'D', 'X', 2};
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 52;
+    private static final int SIVA_LENGTH_OFFSET = 8;
+    private static final int FOOTER_CRC_OFFSET = 16;
+    private static final int COUNT_OFFSET = 20;
+    private static final int NAMES_LENGTH_OFFSET = 24;
+    private static final int NAME_LENGTH_OFFSET = 4;
+    private static final int MODE_OFFSET = 8;
+    private static final int CRC_OFFSET = 12;
+    private static final int MOD_TIME_OFFSET = 16;
+    private static final int ABS_START_OFFSET = 24;
+    private static final int INT_START_OFFSET = 32;
+    private static final int SIZE_OFFSET = 40;
+    private static final int FLAG_OFFSET = 48;
+    private static final long UINT32_MASK = 0xFFFFFFFFL;
+    private static final long MAPPED_SIZE_BYTES = 64;
+
+    private final BaseIndex kind;
+    private final ByteBuffer buf;
+    private final int size;
+    private final int namesStart;
+
+    private SidecarIndex(final BaseIndex kind, final ByteBuffer buf, final int size,
+                         final long sivaLength) {
+        this.kind = kind;
+        this.buf = buf;
+        this.size = size;
+        this.namesStart = HEADER_SIZE + size * ENTRY_SIZE;
+        this.setSivaLength(sivaLength);
+    }
+
+    /**
+     * Opens and maps a sidecar file if it is up to date with the siva file.
+     *
+     * @param kind       empty index of the kind requested, {@link FilteredIndex} or
+     *                   {@link CompactIndex}, which is read instead when the index is
+     *                   refreshed.
+     * @param path       path of the sidecar file.
+     * @param sivaLength current length of the siva file.
+     * @param footerCrc  CRC32 in the footer of the last block of the siva file.
+     * @return the index, or null if the sidecar file does not exist, it is not valid or
+     * it was written for a different content of the siva file.
+     * @throws IOException If the sidecar file can not be read.
+     */
+    static SidecarIndex open(final BaseIndex kind, final Path path, final long sivaLength,
+                             final long footerCrc) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > MappedRegions.REGION_SIZE) {
+                return null;
+            }
+
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        buf.get(magic);
+        if (!Arrays.equals(magic, MAGIC)
+                || buf.getLong(SIVA_LENGTH_OFFSET) != sivaLength
+                || (buf.getInt(FOOTER_CRC_OFFSET) & UINT32_MASK) != footerCrc) {
+            return null;
+        }
+
+        int count = buf.getInt(COUNT_OFFSET);
+        long namesLength = buf.getLong(NAMES_LENGTH_OFFSET);
+        if (count < 0 || namesLength < 0
+                || HEADER_SIZE + (long) count * ENTRY_SIZE + namesLength != buf.capacity()) {
+            return null;
+        }
+
+        SidecarIndex index = new SidecarIndex(kind, buf.asReadOnlyBuffer(), count, sivaLength);
+        if (!index.entriesInBounds(namesLength)) {
+            return null;
+        }
+
+        return index;
+    }
+
+    /**
+     * Writes the sidecar file of a filtered index. The file is written aside and moved
+     * atomically to the given path, so readers never see a partial file. It is given the
+     * same permissions as the siva file, so anyone who can read the siva file can read it.
+     *
+     * @param path       path of the sidecar file, the path of the siva file followed by
+     *                   {@link #EXTENSION}.
+     * @param index      filtered index of the siva file.
+     * @param sivaLength length of the siva file when the index was read.
+     * @param footerCrc  CRC32 in the footer of the last block of the siva file.
+     * @return true if the sidecar file was written, false if the index is too big for a
+     * sidecar file.
+     * @throws IOException If the sidecar file can not be written.
+     */
+    static boolean write(final Path path, final Index index, final long sivaLength,
+                         final long footerCrc) throws IOException {
+        List<IndexEntry> entries = index.getEntries();
+        byte[][] names = new byte[entries.size()][];
+        Integer[] order = new Integer[entries.size()];
+        long namesLength = 0;
+        for (int i = 0; i < order.length; i++) {
+            names[i] = entries.get(i).getNameBytes();
+            order[i] = i;
+            namesLength += names[i].length;
+        }
+
+        if (HEADER_SIZE + (long) order.length * ENTRY_SIZE + namesLength
+                > MappedRegions.REGION_SIZE) {
+            return false;
+        }
+
+        Arrays.sort(order, (a, b) -> SortedNames.compare(names[a], names[b]));
+
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, "." + path.getFileName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.write(MAGIC);
+                out.writeLong(sivaLength);
+                out.writeInt((int) footerCrc);
+                out.writeInt(order.length);
+                out.writeLong(namesLength);
+
+                int nameOffset = 0;
+                for (int i : order) {
+                    IndexEntry entry = entries.get(i);
+                    out.writeInt(nameOffset);
+                    out.writeInt(names[i].length);
+                    out.writeInt(entry.getRawFileMode());
+                    out.writeInt((int) entry.getCrc32());
+                    out.writeLong(entry.getRawModificationTime());
+                    out.writeLong(entry.getAbsStart());
+                    out.writeLong(entry.getIntStart());
+                    out.writeLong(entry.getSize());
+                    out.writeInt(entry.getFlag().toInteger());
+                    nameOffset += names[i].length;
+                }
+
+                for (int i : order) {
+                    out.write(names[i]);
+                }
+            }
+
+            // temporary files are only readable by their owner
+            FileModeUtils.copyPermissions(sivaPath(path), temp);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return a new empty index of the kind requested when the sidecar file was opened,
+     * refreshed sidecar indexes are read in memory.
+     */
+    @Override
+    BuildableIndex newIndex() {
+        return this.kind.newIndex();
+    }
+
+    /**
+     * @return the kind of index requested when the sidecar file was opened.
+     */
+    @Override
+    Class<? extends BaseIndex> getKind() {
+        return this.kind.getKind();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The content of the index is mapped, so only a small part of it is kept in the heap.
+     */
+    @Override
+    long estimatedSize() {
+        return MAPPED_SIZE_BYTES;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned list creates a new {@link IndexEntry} every time an element is
+     * requested.
+     */
+    @Override
+    public List<IndexEntry> getEntries() {
+        return SortedNames.entries(size, this::entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The entry is looked up with a binary search of the mapped entries.
+     */
+    @Override
+    public IndexEntry getEntry(final String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int i = this.lowerBound(key);
+        if (i < size && this.compare(i, key) == 0) {
+            return this.entry(i);
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<IndexEntry> getVersions(final String name) {
+        return SortedNames.versions(this.getEntry(name));
+    }
+
+    /**
+     * {@inheritDoc}
+     * Names are decoded in a reused buffer, so only the matching entries are created.
+     */
+    @Override
+    public List<IndexEntry> glob(final String pattern) {
+        return SortedNames.glob(this, pattern, prefix -> new SortedNames.Cursor() {
+            private int i = lowerBound(prefix) - 1;
+
+            @Override
+            public boolean next() {
+                i++;
+                return i < size;
+            }
+
+            @Override
+            public ByteBuffer name() {
+                return SidecarIndex.this.name(i);
+            }
+
+            @Override
+            public IndexEntry entry() {
+                return SidecarIndex.this.entry(i);
+            }
+        });
+    }
+
+    /**
+     * Checks that the names and the contents of all the entries are inside the sidecar
+     * and the siva files, so a corrupted sidecar file is written again instead of
+     * failing when its entries are read.
+     */
+    private boolean entriesInBounds(final long namesLength) {
+        long sivaLength = this.getSivaLength();
+        for (int i = 0; i < size; i++) {
+            int pos = entryPosition(i);
+            long nameOffset = this.buf.getInt(pos);
+            long nameLength = this.buf.getInt(pos + NAME_LENGTH_OFFSET);
+            long start = this.buf.getLong(pos + ABS_START_OFFSET);
+            long entrySize = this.buf.getLong(pos + SIZE_OFFSET);
+            if (nameOffset < 0 || nameLength < 0 || nameOffset + nameLength > namesLength
+                    || start < 0 || entrySize < 0 || start > sivaLength - entrySize) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Path sivaPath(final Path path) {
+        String name = path.getFileName().toString();
+        return path.resolveSibling(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    private static int entryPosition(final int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    private ByteBuffer name(final int i) {
+        int pos = entryPosition(i);
+        int offset = this.namesStart + this.buf.getInt(pos);
+        ByteBuffer name = this.buf.duplicate();
+        name.limit(offset + this.buf.getInt(pos + NAME_LENGTH_OFFSET));
+        name.position(offset);
+        return name;
+    }
+
+    private IndexEntry entry(final int i) {
+        int pos = entryPosition(i);
+        ByteBuffer nameBuf = this.name(i);
+        byte[] name = new byte[nameBuf.remaining()];
+        nameBuf.get(name);
+
+        return new IndexEntry(
+                name,
+                this.buf.getInt(pos + MODE_OFFSET),
+                this.buf.getLong(pos + MOD_TIME_OFFSET),
+                Flag.fromInteger(this.buf.getInt(pos + FLAG_OFFSET)),
+                this.buf.getLong(pos + INT_START_OFFSET),
+                this.buf.getLong(pos + SIZE_OFFSET),
+                this.buf.getInt(pos + CRC_OFFSET) & UINT32_MASK,
+                this.buf.getLong(pos + ABS_START_OFFSET)
+        );
+    }
+
+    /**
+     * @return the position of the first entry whose name is not lower than the given one.
+     */
+    private int lowerBound(final byte[] key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.compare(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Compares the unsigned UTF-8 bytes of the name of an entry with the given key.
+     */
+    private int compare(final int i, final byte[] key) {
+        int pos = entryPosition(i);
+        return SortedNames.compare(this.buf, this.namesStart + this.buf.getInt(pos),
+                this.buf.getInt(pos + NAME_LENGTH_OFFSET), key);
+    }
+}
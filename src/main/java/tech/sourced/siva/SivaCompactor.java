@@ -0,0 +1,202 @@
+package tech.sourced.siva;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * SivaCompactor rewrites siva files keeping only the latest version of each entry that
+ * has not been deleted, in a single block. Overwritten and deleted entries are left out,
+ * so the compacted file is smaller and its index is read with a single block.
+ */
+public final class SivaCompactor {
+    private SivaCompactor() {
+    }
+
+    /**
+     * compact replaces the given siva file with a compacted one. The compacted file is
+     * written next to it and moved atomically over the original once it is complete, so
+     * readers see either the original or the compacted file. Readers that already have the
+     * original file open keep reading it. The compacted file keeps the permissions of the
+     * original one.
+     * <p>
+     * The original file is not replaced if a block is appended to it while it is compacted,
+     * since the compacted file would not have its entries. Siva files are not locked, so
+     * the check is done just before the compacted file is moved.
+     *
+     * @param sivaFile siva file to compact.
+     * @throws SivaException If some error happens reading the siva file or writing the
+     *                       compacted one, or the siva file changes while it is compacted.
+     *                       The original file is not changed in that case.
+     */
+    public static void compact(final File sivaFile) throws SivaException {
+        compact(sivaFile, SivaReaderOptions.DEFAULT);
+    }
+
+    /**
+     * compact replaces the given siva file with a compacted one, as
+     * {@link #compact(File)}, reading it with the given options.
+     *
+     * @param sivaFile siva file to compact.
+     * @param options  options of the reader of the siva file.
+     * @throws SivaException If some error happens reading the siva file or writing the
+     *                       compacted one, or the siva file changes while it is compacted.
+     *                       The original file is not changed in that case.
+     */
+    public static void compact(final File sivaFile, final SivaReaderOptions options)
+            throws SivaException {
+        Path source = sivaFile.toPath().toAbsolutePath();
+        Path target;
+        try {
+            target = Files.createTempFile(source.getParent(),
+                    "." + source.getFileName(), ".compact");
+        } catch (IOException e) {
+            throw new SivaException(sivaFile.getName(), "Error creating compacted file.", e);
+        }
+
+        try {
+            LastBlock compacted = copyEntries(sivaFile, target.toFile(), options);
+            // temporary files are only readable by their owner
+            FileModeUtils.copyPermissions(source, target);
+            if (!compacted.equals(LastBlock.read(source))) {
+                throw new SivaException(sivaFile.getName(),
+                        "Siva file changed while it was compacted.");
+            }
+
+            Files.move(target, source, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw deleteOnError(target,
+                    new SivaException(sivaFile.getName(), "Error replacing siva file.", e));
+        } catch (SivaException e) {
+            throw deleteOnError(target, e);
+        }
+    }
+
+    /**
+     * compact writes to the target file the compacted content of the source siva file.
+     * The entries are copied in the same order they are stored in the source file.
+     *
+     * @param source siva file to compact.
+     * @param target file where the compacted siva file is written, it is replaced if it
+     *               already exists. It can not be the source file, an
+     *               {@link IllegalArgumentException} is thrown in that case.
+     * @throws SivaException If some error happens reading the siva file or writing the
+     *                       compacted one.
+     */
+    public static void compact(final File source, final File target) throws SivaException {
+        try {
+            // the writer would truncate the source before its index is read
+            if (target.exists() && Files.isSameFile(source.toPath(), target.toPath())) {
+                throw new IllegalArgumentException(
+                        "The compacted file can not be the siva file itself: " + target);
+            }
+        } catch (IOException e) {
+            throw new SivaException(source.getName(), "Error opening siva file.", e);
+        }
+
+        copyEntries(source, target, SivaReaderOptions.DEFAULT);
+    }
+
+    /**
+     * Copies the live entries of the source to the target.
+     *
+     * @return the last block of the source when its index was read.
+     */
+    private static LastBlock copyEntries(final File source, final File target,
+                                         final SivaReaderOptions options)
+            throws SivaException {
+        try (SivaReader reader = new SivaReader(source, options);
+             SivaWriter writer = new SivaWriter(target)) {
+            BaseIndex index = (BaseIndex) reader.getIndex().getFilteredIndex();
+            LastBlock lastBlock = LastBlock.read(reader.getChannel(), index.getSivaLength());
+
+            List<IndexEntry> entries = new ArrayList<>(index.getEntries());
+            entries.sort(Comparator.comparingLong(IndexEntry::getAbsStart));
+
+            for (IndexEntry entry : entries) {
+                writer.copyEntry(reader, entry);
+            }
+
+            writer.sync();
+            return lastBlock;
+        } catch (IOException e) {
+            throw new SivaException(source.getName(), "Error opening siva file.", e);
+        }
+    }
+
+    private static SivaException deleteOnError(final Path file, final SivaException e) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+
+        return e;
+    }
+
+    /**
+     * Length of a siva file and CRC32 in the footer of its last block, which change when
+     * a block is appended or the file is replaced.
+     */
+    private static final class LastBlock {
+        private final long length;
+        private final int footerCrc;
+
+        private LastBlock(final long length, final int footerCrc) {
+            this.length = length;
+            this.footerCrc = footerCrc;
+        }
+
+        static LastBlock read(final Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return read(channel, channel.size());
+            }
+        }
+
+        static LastBlock read(final FileChannel channel, final long length)
+                throws IOException {
+            if (length < Integer.BYTES) {
+                return new LastBlock(length, 0);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, length - buf.remaining()) < 0) {
+                    throw new EOFException();
+                }
+            }
+
+            buf.flip();
+            return new LastBlock(length, buf.getInt());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof LastBlock)) {
+                return false;
+            }
+
+            LastBlock other = (LastBlock) o;
+            return length == other.length && footerCrc == other.footerCrc;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(length, footerCrc);
+        }
+    }
+}
@@ -32,6 +32,37 @@ public class SivaException extends Exception {
      */
     static final String INVALID_CRC = "Wrong Index, Integrity verification failed";
 
+    /**
+     * Index footer pointing outside of the siva file.
+     */
+    static final String INVALID_FOOTER = "Wrong Index, invalid index footer";
+
+    /**
+     * Index block with less data than the entries declared in its footer.
+     */
+    static final String TRUNCATED_INDEX = "Wrong Index, index block is truncated";
+
+    /**
+     * Index blocks are read at once, so they can not be bigger than a buffer.
+     */
+    static final String INDEX_TOO_BIG = "Java implementation of siva doesn't support"
+            + " index blocks bigger than " + Integer.MAX_VALUE + " bytes";
+
+    /**
+     * Name table of a block pointing outside of its index.
+     */
+    static final String INVALID_NAME_TABLE = "Wrong Index, invalid name table";
+
+    /**
+     * CRC32 of the content of an entry does not match the one in the index.
+     *
+     * @param entryName name of the entry.
+     * @return the message of the exception.
+     */
+    static String invalidEntryCrc(final String entryName) {
+        return "Wrong Entry " + entryName + ", Integrity verification failed";
+    }
+
     /**
      * Generate a {@link SivaException} using a message and a cause.
      *
@@ -0,0 +1,88 @@
+package tech.sourced.siva;
+
+/**
+ * SivaListener receives events about the work done by a {@link SivaReader} and its
+ * {@link IndexReader}s, to collect metrics such as how long it takes to load the index of
+ * each siva file or how many bytes are read from its entries.
+ * <p>
+ * All the methods do nothing by default, so implementations only override the events
+ * they need. They are called from the threads using the reader, so they must be thread
+ * safe and return quickly. The reader skips the work needed by the entry events when it
+ * uses {@link #NO_OP}, the listener of {@link SivaReaderOptions#DEFAULT}.
+ *
+ * @see HistogramListener
+ */
+public interface SivaListener {
+
+    /**
+     * Listener ignoring all the events.
+     */
+    SivaListener NO_OP = new SivaListener() {
+    };
+
+    /**
+     * Called when an index has been read from the siva file, or when the blocks appended
+     * to it have been read to refresh an index.
+     *
+     * @param sivaFileName  siva file name.
+     * @param durationNanos time spent reading the index, in nanoseconds.
+     * @param blocks        number of blocks read.
+     * @param entries       number of entries read.
+     * @param bytes         number of bytes of the indexes and footers of the blocks read.
+     */
+    default void indexLoaded(final String sivaFileName, final long durationNanos,
+                             final long blocks, final long entries, final long bytes) {
+    }
+
+    /**
+     * Called when an index is not read from the siva file because it is found in the
+     * {@link IndexCache} or in an up to date sidecar index file.
+     *
+     * @param sivaFileName siva file name.
+     */
+    default void indexCacheHit(final String sivaFileName) {
+    }
+
+    /**
+     * Called when a stream returned by {@link SivaReader#getEntry(IndexEntry)} is created.
+     *
+     * @param sivaFileName siva file name.
+     * @param entry        entry being read.
+     */
+    default void entryOpened(final String sivaFileName, final IndexEntry entry) {
+    }
+
+    /**
+     * Called when a stream returned by {@link SivaReader#getEntry(IndexEntry)} is closed.
+     * Streams that are never closed are not reported.
+     *
+     * @param sivaFileName  siva file name.
+     * @param entry         entry that was read.
+     * @param bytes         number of bytes read or skipped from the stream.
+     * @param durationNanos time since the stream was created, in nanoseconds.
+     */
+    default void entryClosed(final String sivaFileName, final IndexEntry entry,
+                             final long bytes, final long durationNanos) {
+    }
+
+    /**
+     * Called when the CRC32 of an index block or of the content of an entry does not
+     * match the one in the siva file, before {@link #failed(String, SivaException)}.
+     *
+     * @param sivaFileName siva file name.
+     * @param entry        entry whose content does not match, or null if it is the index
+     *                     of a block.
+     */
+    default void crcMismatch(final String sivaFileName, final IndexEntry entry) {
+    }
+
+    /**
+     * Called when an operation fails with a {@link SivaException}, including the CRC32
+     * checks of the content of the entries, before the exception is thrown to the caller.
+     *
+     * @param sivaFileName siva file name.
+     * @param e            the exception.
+     */
+    default void failed(final String sivaFileName, final SivaException e) {
+    }
+}
@@ -1,23 +1,44 @@
 package tech.sourced.siva;
 
-import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
 
 /**
  * {@link SivaReader} and all its outputs are thread safe. This class handles the
  * unpacked process of a siva file.
  */
 public class SivaReader implements AutoCloseable {
+    private static final int VERIFY_BUFFER_SIZE = 64 * 1024;
+    private static final long EXTRACT_MAX_GAP = 64 * 1024;
+    private static final long EXTRACT_MAX_RUN_SIZE = 4 * 1024 * 1024;
 
     private final RandomAccessFile sivaFile;
     private final String sivaFileName;
     private final FileChannel channel;
+    private final MappedRegions mappedRegions;
+    private final IndexCache indexCache;
+    private final IndexCache.FileIdentity identity;
+    private final Path sidecar;
+    private final Path path;
+    private final SivaListener listener;
+    private final IndexLoads indexLoads = new IndexLoads();
+    private AsyncEntryReader asyncReader;
 
     /**
      * Create a {@link SivaReader} from a siva file.
@@ -29,55 +50,550 @@ public class SivaReader implements AutoCloseable {
         this.sivaFile = new RandomAccessFile(sivaFile, "r");
         this.sivaFileName = sivaFile.getName();
         this.channel = this.sivaFile.getChannel();
+        this.mappedRegions = null;
+        this.indexCache = null;
+        this.identity = null;
+        this.sidecar = null;
+        this.path = sivaFile.toPath();
+        this.listener = SivaListener.NO_OP;
+    }
+
+    /**
+     * Create a {@link SivaReader} from a siva file using the given options.
+     *
+     * @param sivaFile The siva file.
+     * @param options  settings of the reader.
+     * @throws FileNotFoundException If the file does not exists.
+     * @throws SivaException         If the file could not be memory mapped or its
+     *                               attributes could not be read.
+     */
+    public SivaReader(final File sivaFile, final SivaReaderOptions options)
+            throws FileNotFoundException, SivaException {
+        this(sivaFile, options, MappedRegions.REGION_SIZE);
+    }
+
+    /**
+     * Create a {@link SivaReader} that maps the siva file, if the options say so, in
+     * regions of the given size instead of the biggest size allowed.
+     *
+     * @param sivaFile   The siva file.
+     * @param options    settings of the reader.
+     * @param regionSize size of each mapped region.
+     * @throws FileNotFoundException If the file does not exists.
+     * @throws SivaException         If the file could not be memory mapped or its
+     *                               attributes could not be read.
+     */
+    SivaReader(final File sivaFile, final SivaReaderOptions options, final long regionSize)
+            throws FileNotFoundException, SivaException {
+        this.sivaFile = new RandomAccessFile(sivaFile, "r");
+        this.sivaFileName = sivaFile.getName();
+        this.channel = this.sivaFile.getChannel();
+        this.indexCache = options.getIndexCache();
+        this.sidecar = sidecarPath(sivaFile, options);
+        this.path = sivaFile.toPath();
+        this.listener = options.getListener();
+
+        try {
+            this.mappedRegions = mapRegions(this.channel, options, regionSize);
+            this.identity = fileIdentity(sivaFile, options);
+        } catch (IOException e) {
+            try {
+                this.sivaFile.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw this.failed(new SivaException(sivaFileName, "Error opening siva file.", e));
+        }
+    }
+
+    private static Path sidecarPath(final File sivaFile, final SivaReaderOptions options) {
+        if (!options.isSidecarIndex()) {
+            return null;
+        }
+
+        return Paths.get(sivaFile.getPath() + SidecarIndex.EXTENSION);
+    }
+
+    private static MappedRegions mapRegions(final FileChannel channel,
+                                            final SivaReaderOptions options,
+                                            final long regionSize) throws IOException {
+        if (!options.isMemoryMapped()) {
+            return null;
+        }
+
+        return new MappedRegions(channel, regionSize);
+    }
+
+    private static IndexCache.FileIdentity fileIdentity(final File sivaFile,
+                                                        final SivaReaderOptions options)
+            throws IOException {
+        if (options.getIndexCache() == null) {
+            return null;
+        }
+
+        return new IndexCache.FileIdentity(sivaFile.toPath());
     }
 
     /**
      * getEntry returns the file referenced by the provided {@link IndexEntry}.
      * Entries can be obtained from {@link #getIndex()} method.
+     * The returned stream reads from the siva file using its own position, so many
+     * entries can be read at the same time from different threads. If the reader is
+     * memory mapped, the stream reads directly from the mapped regions. The content of
+     * compressed entries is decompressed as it is read.
      *
      * @param indexEntry entry obtained from the siva index
      * @return InputStream to be able to read the entire expected file.
      * @throws SivaException If some problem happens trying to read the siva file.
      */
     public final InputStream getEntry(final IndexEntry indexEntry) throws SivaException {
-        try {
-            InputStream is =
-                    Channels.newInputStream(
-                            this.channel.position(indexEntry.getAbsStart())
-                    );
+        return this.openEntry(this.getStoredEntry(indexEntry), indexEntry);
+    }
+
+    /**
+     * @return stream with the content of the entry read from its stored content,
+     * decompressed if needed and reported to the listener.
+     */
+    private InputStream openEntry(final InputStream stored, final IndexEntry indexEntry) {
+        InputStream is = stored;
+        if (indexEntry.isCompressed()) {
+            is = EntryCompression.inflate(is);
+        }
+
+        return this.listen(is, indexEntry);
+    }
+
+    /**
+     * @return stream with the content of the entry as it is stored in the siva file.
+     */
+    private InputStream getStoredEntry(final IndexEntry indexEntry) throws SivaException {
+        if (this.mappedRegions == null) {
             return new RangeInputStream(
-                    new BufferedInputStream(is),
+                    this.channel,
+                    indexEntry.getAbsStart(),
                     indexEntry.getSize()
             );
+        }
+
+        try {
+            return new ByteBufferInputStream(this.mappedRegions.slices(
+                    indexEntry.getAbsStart(), indexEntry.getSize()));
+        } catch (IOException e) {
+            throw this.failed(
+                    new SivaException(sivaFileName, "Error reading index entry.", e));
+        }
+    }
+
+    private InputStream listen(final InputStream is, final IndexEntry indexEntry) {
+        if (this.listener == SivaListener.NO_OP) {
+            return is;
+        }
+
+        return new ListeningInputStream(is, indexEntry, this.sivaFileName, this.listener);
+    }
+
+    private SivaException failed(final SivaException e) {
+        this.listener.failed(sivaFileName, e);
+        return e;
+    }
+
+    /**
+     * readEntryAsync reads the content of the file referenced by the provided
+     * {@link IndexEntry} in a new buffer, without blocking the calling thread. The reads
+     * are done with an {@link java.nio.channels.AsynchronousFileChannel}, opened the first
+     * time it is needed.
+     *
+     * @param indexEntry entry obtained from the siva index
+     * @return a future completed with the entire expected file, from position 0 to the
+     * limit of the buffer, or with a {@link SivaException} if it can not be read.
+     * @throws SivaException If the asynchronous channel can not be opened.
+     */
+    public final CompletableFuture<ByteBuffer> readEntryAsync(final IndexEntry indexEntry)
+            throws SivaException {
+        return this.listen(this.getAsyncReader().read(indexEntry));
+    }
+
+    /**
+     * readEntryAsync reads the content of the file referenced by the provided
+     * {@link IndexEntry} in the given buffer, without blocking the calling thread.
+     *
+     * @param indexEntry entry obtained from the siva index
+     * @param dst        buffer where the content is read from its position. It must have
+     *                   at least the size of the content remaining, and it must not be
+     *                   used until the read is completed. For compressed entries, the
+     *                   content is read in a new buffer and decompressed in this one.
+     * @return a future completed with the given buffer, with its position after the end
+     * of the content, or with a {@link SivaException} if it can not be read or the buffer
+     * is too small.
+     * @throws SivaException If the asynchronous channel can not be opened.
+     * @see #readEntryAsync(IndexEntry)
+     */
+    public final CompletableFuture<ByteBuffer> readEntryAsync(final IndexEntry indexEntry,
+                                                              final ByteBuffer dst)
+            throws SivaException {
+        return this.listen(this.getAsyncReader().read(indexEntry, dst));
+    }
+
+    /**
+     * readEntriesAsync reads the content of many files without blocking the calling
+     * thread. The entries are sorted by their position in the siva file, and the entries
+     * stored close to each other are read together with a single bigger read.
+     *
+     * @param indexEntries entries obtained from the siva index
+     * @return a future completed with the content of each entry, in the same order as the
+     * given entries, or with a {@link SivaException} if some of them can not be read.
+     * @throws SivaException If the asynchronous channel can not be opened.
+     * @see #readEntryAsync(IndexEntry)
+     */
+    public final CompletableFuture<List<ByteBuffer>> readEntriesAsync(
+            final List<IndexEntry> indexEntries) throws SivaException {
+        return this.listen(this.getAsyncReader().readAll(indexEntries));
+    }
+
+    private <T> CompletableFuture<T> listen(final CompletableFuture<T> future) {
+        if (this.listener == SivaListener.NO_OP) {
+            return future;
+        }
+
+        return future.whenComplete((result, e) -> {
+            if (e instanceof SivaException) {
+                this.listener.failed(sivaFileName, (SivaException) e);
+            } else if (e instanceof CompletionException
+                    && e.getCause() instanceof SivaException) {
+                this.listener.failed(sivaFileName, (SivaException) e.getCause());
+            }
+        });
+    }
+
+    private synchronized AsyncEntryReader getAsyncReader() throws SivaException {
+        if (this.asyncReader == null) {
+            try {
+                this.asyncReader = new AsyncEntryReader(this.path, this.sivaFileName);
+            } catch (IOException e) {
+                throw this.failed(
+                        new SivaException(sivaFileName, "Error opening siva file.", e));
+            }
+        }
+
+        return this.asyncReader;
+    }
+
+    /**
+     * extractAll reads the content of many entries and passes each one to the given sink.
+     * The entries are sorted by their position in the siva file, and the entries stored
+     * close to each other are read together with a single sequential read, instead of
+     * reading each entry on its own. Deleted files are skipped. The stream given to the
+     * sink is closed once it returns, and it is reported to the listener like the ones
+     * returned by {@link #getEntry(IndexEntry)}.
+     *
+     * @param indexEntries entries obtained from the siva index
+     * @param sink         sink receiving the content of each entry, in the order they are
+     *                     stored in the siva file.
+     * @throws SivaException If some problem happens trying to read the siva file or the
+     *                       sink fails.
+     */
+    public final void extractAll(final Collection<IndexEntry> indexEntries,
+                                 final EntrySink sink) throws SivaException {
+        List<IndexEntry> entries = new ArrayList<>(indexEntries.size());
+        for (IndexEntry entry : indexEntries) {
+            if (entry.getFlag() != Flag.DELETE) {
+                entries.add(entry);
+            }
+        }
+
+        ByteBuffer buf = null;
+        for (EntryRuns.Run run
+                : EntryRuns.of(entries, EXTRACT_MAX_GAP, EXTRACT_MAX_RUN_SIZE)) {
+            // mapped files and runs of a single big entry are read without copying them
+            ByteBuffer content = null;
+            if (this.mappedRegions == null && run.getSize() <= EXTRACT_MAX_RUN_SIZE) {
+                if (buf == null || buf.capacity() < run.getSize()) {
+                    buf = ByteBuffer.allocate((int) run.getSize());
+                }
+
+                try {
+                    content = this.readRun(run, buf);
+                } catch (SivaException e) {
+                    throw this.failed(e);
+                }
+            }
+
+            for (int i : run.getMembers()) {
+                IndexEntry entry = entries.get(i);
+                InputStream stored;
+                if (content == null) {
+                    stored = this.getStoredEntry(entry);
+                } else {
+                    ByteBuffer slice = content.duplicate();
+                    int offset = (int) (entry.getAbsStart() - run.getStart());
+                    slice.limit(offset + (int) entry.getSize());
+                    slice.position(offset);
+                    stored = new ByteBufferInputStream(slice);
+                }
+
+                // the stream is closed once the sink is done, so the listener sees the
+                // same opened and closed entries however they were read
+                try (InputStream is = this.openEntry(stored, entry)) {
+                    sink.accept(entry, is);
+                } catch (IOException e) {
+                    throw this.failed(new SivaException(sivaFileName,
+                            "Error extracting index entry " + entry.getName() + ".", e));
+                }
+            }
+        }
+    }
+
+    /**
+     * extractAll writes the given entries as files in the target directory, using the
+     * entry names as relative paths, and applies their file mode and modification time.
+     * If several versions of the same file are given, the one stored last is kept.
+     *
+     * @param indexEntries    entries obtained from the siva index
+     * @param targetDirectory directory where the files are written, created if it does
+     *                        not exist.
+     * @throws SivaException If some problem happens trying to read the siva file, an
+     *                       entry name points outside of the target directory or the
+     *                       files can not be written.
+     * @see #extractAll(Collection, EntrySink)
+     */
+    public final void extractAll(final Collection<IndexEntry> indexEntries,
+                                 final File targetDirectory) throws SivaException {
+        EntrySink sink;
+        try {
+            sink = new DirectorySink(targetDirectory.toPath());
+        } catch (IOException e) {
+            throw this.failed(
+                    new SivaException(sivaFileName, "Error creating target directory.", e));
+        }
+
+        this.extractAll(indexEntries, sink);
+    }
+
+    private ByteBuffer readRun(final EntryRuns.Run run, final ByteBuffer buf)
+            throws SivaException {
+        buf.clear();
+        buf.limit((int) run.getSize());
+        try {
+            long position = run.getStart();
+            while (buf.hasRemaining()) {
+                int n = this.channel.read(buf, position);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+
+                position += n;
+            }
         } catch (IOException e) {
             throw new SivaException(sivaFileName, "Error reading index entry.", e);
         }
+
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * getVerifiedEntry returns the same stream as {@link #getEntry(IndexEntry)}, but the
+     * CRC32 of the content is computed as it is read and checked against the one in the
+     * {@link IndexEntry} once the end of the stream is reached. If they do not match, the
+     * read fails with an IOException caused by a {@link SivaException}. The CRC32 of
+     * compressed entries is computed over their stored content, so a corrupted entry can
+     * also make the decompression fail before it is checked.
+     *
+     * @param indexEntry entry obtained from the siva index
+     * @return InputStream to be able to read and verify the entire expected file.
+     * @throws SivaException If some problem happens trying to read the siva file.
+     */
+    public final InputStream getVerifiedEntry(final IndexEntry indexEntry)
+            throws SivaException {
+        InputStream is = new CrcInputStream(this.getStoredEntry(indexEntry), indexEntry,
+                this.sivaFileName, this.listener);
+        if (indexEntry.isCompressed()) {
+            is = EntryCompression.inflate(is);
+        }
+
+        return this.listen(is, indexEntry);
+    }
+
+    /**
+     * verifyAll checks the CRC32 of the content of all the entries in the siva file,
+     * including the ones that have been overwritten later, reading the entries in
+     * parallel using the given executor.
+     *
+     * @param executor executor used to read the entries, such as
+     *                 {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     * @throws SivaException If the content of an entry does not match its CRC32 or some
+     *                       problem happens trying to read the siva file.
+     */
+    public final void verifyAll(final Executor executor) throws SivaException {
+        List<CompletableFuture<Void>> checks = new ArrayList<>();
+        for (IndexEntry entry : this.getIndex().getCompleteIndex().getEntries()) {
+            if (entry.getFlag() == Flag.DELETE) {
+                continue;
+            }
+
+            checks.add(CompletableFuture.runAsync(() -> this.verify(entry), executor));
+        }
+
+        for (CompletableFuture<Void> check : checks) {
+            try {
+                check.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SivaException) {
+                    throw this.failed((SivaException) e.getCause());
+                }
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @throws CompletionException with a {@link SivaException} as cause if the entry
+     *                             can not be read or its CRC32 does not match.
+     */
+    private void verify(final IndexEntry entry) {
+        CRC32 checksum = new CRC32();
+        try {
+            if (this.mappedRegions == null) {
+                ByteBuffer buf = ByteBuffer.allocate(
+                        (int) Math.min(entry.getSize(), VERIFY_BUFFER_SIZE));
+                long position = entry.getAbsStart();
+                long end = position + entry.getSize();
+                while (position < end) {
+                    buf.clear();
+                    buf.limit((int) Math.min(buf.capacity(), end - position));
+                    int n = this.channel.read(buf, position);
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+
+                    checksum.update(buf.array(), 0, n);
+                    position += n;
+                }
+            } else {
+                for (ByteBuffer buf
+                        : this.mappedRegions.slices(entry.getAbsStart(), entry.getSize())) {
+                    checksum.update(buf);
+                }
+            }
+        } catch (IOException e) {
+            throw new CompletionException(
+                    new SivaException(sivaFileName, "Error reading index entry.", e));
+        }
+
+        if (checksum.getValue() != entry.getCrc32()) {
+            this.listener.crcMismatch(sivaFileName, entry);
+            throw new CompletionException(new SivaException(sivaFileName,
+                    SivaException.invalidEntryCrc(entry.getName())));
+        }
+    }
+
+    /**
+     * getEntryBuffer returns a read-only buffer with the content of the file referenced
+     * by the provided {@link IndexEntry}, without copying it to the heap. If the reader
+     * is memory mapped the buffer is a slice of the mapped file, otherwise the entry is
+     * mapped on demand. Compressed entries are decompressed in a new heap buffer.
+     *
+     * @param indexEntry entry obtained from the siva index
+     * @return read-only buffer with the entire expected file.
+     * @throws SivaException If the entry is bigger than (2^31)-1 bytes or some problem
+     *                       happens trying to map the siva file.
+     */
+    public final ByteBuffer getEntryBuffer(final IndexEntry indexEntry) throws SivaException {
+        if (indexEntry.getSize() > MappedRegions.REGION_SIZE) {
+            throw this.failed(new SivaException(sivaFileName, "Entry " + indexEntry.getName()
+                    + " is too big to fit in a buffer, use getEntry instead."));
+        }
+
+        ByteBuffer stored;
+        try {
+            if (this.mappedRegions == null) {
+                stored = this.channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        indexEntry.getAbsStart(),
+                        indexEntry.getSize()
+                );
+            } else {
+                stored = this.mappedRegions.slice(indexEntry.getAbsStart(),
+                        indexEntry.getSize());
+            }
+        } catch (IOException e) {
+            throw this.failed(new SivaException(sivaFileName, "Error mapping index entry.", e));
+        }
+
+        if (!indexEntry.isCompressed()) {
+            return stored;
+        }
+
+        try {
+            return EntryCompression.inflate(stored).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw this.failed(new SivaException(sivaFileName, "Error decompressing index entry "
+                    + indexEntry.getName() + ".", e));
+        }
     }
 
     /**
      * getIndex provides an {@link IndexReader} that points to the index into
-     * the siva file.
-     * Is recommended to get an index per thread, but anyways
-     * {@link IndexReader} is thread safe.
+     * the siva file. {@link IndexReader} is thread safe and lock free, and the same
+     * index requested at the same time from several threads is read only once.
      *
      * @return an {@link IndexReader}
      */
     public final IndexReader getIndex() {
-        return new IndexReader(this.sivaFile, this.sivaFileName);
+        return new IndexReader(this.channel, this.mappedRegions, this.sivaFileName,
+                this.indexCache, this.identity, this.sidecar, this.listener,
+                this.indexLoads);
+    }
+
+    /**
+     * @return channel of the siva file, which must only be used with positional reads.
+     */
+    final FileChannel getChannel() {
+        return this.channel;
     }
 
     /**
-     * Close closes the siva reader. When it is closed, it cannot be reused.
+     * Close closes the siva reader. When it is closed, it cannot be reused. All the
+     * channels are closed even if closing some of them fails.
      *
      * @throws SivaException if some error happens when we tried to close the
-     *                       internal channel or the siva file reader.
+     *                       internal channels or the siva file reader.
      */
     public final void close() throws SivaException {
+        IOException error = null;
+        synchronized (this) {
+            if (this.asyncReader != null) {
+                error = closeKeepingError(this.asyncReader::close, null);
+            }
+        }
+
+        error = closeKeepingError(this.channel, error);
+        error = closeKeepingError(this.sivaFile, error);
+        if (error != null) {
+            throw new SivaException(sivaFileName, "Error closing siva reader", error);
+        }
+    }
+
+    /**
+     * Closes a resource, adding the error to the one of a previous resource if there was
+     * one.
+     *
+     * @return the first error, or null if there has been none.
+     */
+    private static IOException closeKeepingError(final Closeable closeable,
+                                                 final IOException previous) {
         try {
-            this.channel.close();
-            this.sivaFile.close();
+            closeable.close();
         } catch (IOException e) {
-            throw new SivaException(sivaFileName, "Error closing siva reader", e);
+            if (previous == null) {
+                return e;
+            }
+
+            previous.addSuppressed(e);
         }
+
+        return previous;
     }
 }
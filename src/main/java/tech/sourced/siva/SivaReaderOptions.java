@@ -0,0 +1,100 @@
+package tech.sourced.siva;
+
+/**
+ * SivaReaderOptions holds the settings used by a {@link SivaReader}. Instances are
+ * immutable, every {@code with} method returns a copy with the given setting changed.
+ */
+public final class SivaReaderOptions {
+
+    /**
+     * Options used by {@link SivaReader#SivaReader(java.io.File)}.
+     */
+    public static final SivaReaderOptions DEFAULT = new SivaReaderOptions(false, null, false,
+            SivaListener.NO_OP);
+
+    private final boolean memoryMapped;
+    private final IndexCache indexCache;
+    private final boolean sidecarIndex;
+    private final SivaListener listener;
+
+    private SivaReaderOptions(final boolean memoryMapped, final IndexCache indexCache,
+                              final boolean sidecarIndex, final SivaListener listener) {
+        this.memoryMapped = memoryMapped;
+        this.indexCache = indexCache;
+        this.sidecarIndex = sidecarIndex;
+        this.listener = listener;
+    }
+
+    /**
+     * @param mapped whether the whole siva file should be memory mapped when it is opened.
+     * @return a copy of these options with the memory mapped mode changed.
+     */
+    public SivaReaderOptions withMemoryMapped(final boolean mapped) {
+        return new SivaReaderOptions(mapped, indexCache, sidecarIndex, listener);
+    }
+
+    /**
+     * @param cache cache where the indexes are looked up before reading them from the
+     *              siva file, or null to always read them.
+     * @return a copy of these options with the index cache changed.
+     */
+    public SivaReaderOptions withIndexCache(final IndexCache cache) {
+        return new SivaReaderOptions(memoryMapped, cache, sidecarIndex, listener);
+    }
+
+    /**
+     * @param sidecar whether the filtered index should be persisted in a sidecar file, with
+     *                the name of the siva file followed by {@code .idx}, to map it the next
+     *                time instead of reading the siva file.
+     * @return a copy of these options with the sidecar index mode changed.
+     */
+    public SivaReaderOptions withSidecarIndex(final boolean sidecar) {
+        return new SivaReaderOptions(memoryMapped, indexCache, sidecar, listener);
+    }
+
+    /**
+     * @param sivaListener listener receiving the events of the reader, such as a
+     *                     {@link HistogramListener}, or null to ignore them.
+     * @return a copy of these options with the listener changed.
+     */
+    public SivaReaderOptions withListener(final SivaListener sivaListener) {
+        if (sivaListener == null) {
+            return new SivaReaderOptions(memoryMapped, indexCache, sidecarIndex,
+                    SivaListener.NO_OP);
+        }
+
+        return new SivaReaderOptions(memoryMapped, indexCache, sidecarIndex, sivaListener);
+    }
+
+    /**
+     * @return true if the siva file is memory mapped once and the entries are served
+     * directly from the mapped regions.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return cache shared by the readers to reuse already parsed indexes, or null if
+     * indexes are always read from the siva file.
+     */
+    public IndexCache getIndexCache() {
+        return indexCache;
+    }
+
+    /**
+     * @return true if the filtered index is mapped from a sidecar file when it is up to
+     * date, and the sidecar file is written when it is not.
+     */
+    public boolean isSidecarIndex() {
+        return sidecarIndex;
+    }
+
+    /**
+     * @return listener receiving the events of the reader, {@link SivaListener#NO_OP} by
+     * default.
+     */
+    public SivaListener getListener() {
+        return listener;
+    }
+}
@@ -0,0 +1,349 @@
+package tech.sourced.siva;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * SivaReaderPool keeps a bounded number of {@link SivaReader}s open, so the siva files
+ * used more often are not opened and their indexes not read every time. When the pool is
+ * full, the least recently used reader is closed.
+ * <p>
+ * Readers are acquired as a {@link Handle} that must be closed to release it. A reader is
+ * not closed while it is in use by a handle or a stream obtained from a handle, even if it
+ * has been evicted, so the number of open files may exceed the size of the pool while
+ * evicted readers are still in use. This class is thread safe.
+ */
+public final class SivaReaderPool implements AutoCloseable {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int maxReaders;
+    private final SivaReaderOptions options;
+    private final LinkedHashMap<Path, Pooled> readers =
+            new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private long opens;
+    private long hits;
+    private long evictions;
+    private boolean closed;
+
+    /**
+     * Creates an empty pool of readers with the default options.
+     *
+     * @param maxReaders maximum number of readers kept open.
+     */
+    public SivaReaderPool(final int maxReaders) {
+        this(maxReaders, SivaReaderOptions.DEFAULT);
+    }
+
+    /**
+     * Creates an empty pool of readers.
+     *
+     * @param maxReaders maximum number of readers kept open.
+     * @param options    options used to open the readers.
+     */
+    public SivaReaderPool(final int maxReaders, final SivaReaderOptions options) {
+        if (maxReaders < 1) {
+            throw new IllegalArgumentException("The pool must keep at least one reader");
+        }
+
+        this.maxReaders = maxReaders;
+        this.options = options;
+    }
+
+    /**
+     * acquire returns a handle of the reader of the given siva file, opening it if it is
+     * not already open in the pool.
+     *
+     * @param sivaFile The siva file.
+     * @return a handle that must be closed when the reader is not needed anymore.
+     * @throws FileNotFoundException If the file does not exists.
+     * @throws SivaException         If the file could not be opened.
+     */
+    public Handle acquire(final File sivaFile) throws FileNotFoundException, SivaException {
+        Path path = sivaFile.toPath().toAbsolutePath().normalize();
+        synchronized (this) {
+            checkOpen();
+            Pooled pooled = readers.get(path);
+            if (pooled != null) {
+                hits++;
+                return new Handle(this, pooled);
+            }
+        }
+
+        // files are opened out of the lock, so other readers can be acquired meanwhile
+        SivaReader reader = new SivaReader(sivaFile, options);
+        synchronized (this) {
+            Pooled pooled = readers.get(path);
+            if (closed || pooled != null) {
+                reader.close();
+                checkOpen();
+                hits++;
+                return new Handle(this, pooled);
+            }
+
+            opens++;
+            pooled = new Pooled(reader);
+            readers.put(path, pooled);
+            Handle handle = new Handle(this, pooled);
+            evict();
+            return handle;
+        }
+    }
+
+    /**
+     * invalidate removes the reader of the given siva file from the pool, so it is opened
+     * again the next time it is acquired. It should be used when the file is replaced.
+     *
+     * @param sivaFile The siva file.
+     */
+    public synchronized void invalidate(final File sivaFile) {
+        Pooled pooled = readers.remove(sivaFile.toPath().toAbsolutePath().normalize());
+        if (pooled != null) {
+            retire(pooled);
+        }
+    }
+
+    /**
+     * @return maximum number of readers kept open.
+     */
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    /**
+     * @return number of readers in the pool.
+     */
+    public synchronized int size() {
+        return readers.size();
+    }
+
+    /**
+     * @return number of times a siva file had to be opened.
+     */
+    public synchronized long getOpenCount() {
+        return opens;
+    }
+
+    /**
+     * @return number of times a reader was found open in the pool.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of readers evicted to keep the pool under its maximum size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Close removes all the readers from the pool and closes them, or closes them when
+     * they are released if they are in use. When it is closed, it cannot be reused.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        List<Pooled> pooled = new ArrayList<>(readers.values());
+        readers.clear();
+        for (Pooled p : pooled) {
+            retire(p);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("SivaReaderPool is closed");
+        }
+    }
+
+    /**
+     * Evicts the least recently used readers that are not in use until the pool is not
+     * over its maximum size. If all of them are in use, the least recently used one is
+     * evicted anyway, and it is closed when it is released.
+     */
+    private void evict() {
+        while (readers.size() > maxReaders) {
+            Pooled victim = null;
+            Iterator<Pooled> it = readers.values().iterator();
+            while (it.hasNext()) {
+                Pooled p = it.next();
+                if (p.refs == 0) {
+                    victim = p;
+                    it.remove();
+                    break;
+                }
+            }
+
+            if (victim == null) {
+                it = readers.values().iterator();
+                victim = it.next();
+                it.remove();
+            }
+
+            evictions++;
+            retire(victim);
+        }
+    }
+
+    private void retire(final Pooled pooled) {
+        pooled.retired = true;
+        if (pooled.refs == 0) {
+            pooled.close();
+        }
+    }
+
+    private synchronized void retain(final Pooled pooled) {
+        pooled.refs++;
+    }
+
+    private synchronized void release(final Pooled pooled) {
+        pooled.refs--;
+        if (pooled.refs == 0 && pooled.retired) {
+            pooled.close();
+        }
+    }
+
+    /**
+     * Reader kept in the pool with the number of handles and streams using it.
+     */
+    private static final class Pooled {
+        private final SivaReader reader;
+        private int refs;
+        private boolean retired;
+        private Index filteredIndex;
+
+        Pooled(final SivaReader reader) {
+            this.reader = reader;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (SivaException e) {
+                // the file is only read, there is nothing to recover if it fails to close
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handle gives access to a reader of the pool until it is closed. Handles are not
+     * thread safe, but the readers are, so each thread should acquire its own handle.
+     */
+    public static final class Handle implements AutoCloseable {
+        private final SivaReaderPool pool;
+        private final Pooled pooled;
+        private boolean released;
+
+        private Handle(final SivaReaderPool pool, final Pooled pooled) {
+            this.pool = pool;
+            this.pooled = pooled;
+            pool.retain(pooled);
+        }
+
+        /**
+         * getReader returns the pooled reader. It must not be used once the handle is
+         * closed, and it must not be closed, it is closed by the pool.
+         *
+         * @return the reader of the siva file.
+         */
+        public SivaReader getReader() {
+            checkNotReleased();
+            return pooled.reader;
+        }
+
+        /**
+         * getFilteredIndex returns the filtered index of the siva file. The index is kept
+         * in the pool with the reader, and it is refreshed if the file has been appended.
+         *
+         * @return Index with the last entry of each file.
+         * @throws SivaException If some error happens reading or validating the index.
+         * @see IndexReader#getFilteredIndex()
+         */
+        public Index getFilteredIndex() throws SivaException {
+            checkNotReleased();
+            synchronized (pooled) {
+                IndexReader indexReader = pooled.reader.getIndex();
+                if (pooled.filteredIndex == null) {
+                    pooled.filteredIndex = indexReader.getFilteredIndex();
+                } else {
+                    pooled.filteredIndex = indexReader.refresh(pooled.filteredIndex);
+                }
+
+                return pooled.filteredIndex;
+            }
+        }
+
+        /**
+         * getEntry returns the content of an entry, as {@link SivaReader#getEntry}. The
+         * reader is kept open until the returned stream is closed, even if the handle is
+         * closed before.
+         *
+         * @param indexEntry entry obtained from the siva index
+         * @return InputStream to be able to read the entire expected file.
+         * @throws SivaException If some problem happens trying to read the siva file.
+         */
+        public InputStream getEntry(final IndexEntry indexEntry) throws SivaException {
+            checkNotReleased();
+            InputStream in = pooled.reader.getEntry(indexEntry);
+            pool.retain(pooled);
+            return new PooledInputStream(in, pool, pooled);
+        }
+
+        /**
+         * Close releases the reader, which is closed if it has been evicted from the pool
+         * and it is not in use anymore.
+         */
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                pool.release(pooled);
+            }
+        }
+
+        private void checkNotReleased() {
+            if (released) {
+                throw new IllegalStateException("Handle is closed");
+            }
+        }
+    }
+
+    /**
+     * Stream that keeps a reader of the pool in use until it is closed.
+     */
+    private static final class PooledInputStream extends FilterInputStream {
+        private final SivaReaderPool pool;
+        private final Pooled pooled;
+        private boolean released;
+
+        PooledInputStream(final InputStream in, final SivaReaderPool pool, final Pooled pooled) {
+            super(in);
+            this.pool = pool;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    pool.release(pooled);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,673 @@
+package tech.sourced.siva;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * SivaWriter writes siva files. Each entry is started with {@link #writeHeader(Header)},
+ * followed by any number of writes with its content, and {@link #flush()} ends the
+ * current block writing the index of all the entries written since the previous block.
+ * <p>
+ * The content of the entries is collected in a large direct buffer and written to the
+ * file with gathering writes, together with the index and the footer when the block is
+ * flushed. The CRC32 of each entry is computed while it is written. SivaWriter is not
+ * thread safe.
+ * <p>
+ * Siva files are append only: to update an existing file, open it in append mode and
+ * write a block with the new versions of the changed entries, and
+ * {@link #writeDelete(String)} for the removed ones.
+ * <p>
+ * If compression is enabled in the {@link SivaWriterOptions}, the first bytes of each
+ * entry are kept in memory until it is known whether compressing the entry is worth it,
+ * and the entries that are compressed are marked with {@link Flag#COMPRESSED}. The size
+ * and CRC32 in the index of a compressed entry refer to its stored content.
+ * <p>
+ * With {@link SivaWriterOptions#withNameTable(boolean)}, every block also gets a
+ * name table before its index, so {@link IndexReader#findEntry(String)} can
+ * look up single entries reading just a few small parts of the index.
+ *
+ * @see <a href="https://github.com/src-d/go-siva/blob/master/SPEC.md">
+ * Siva Format Specification</a>
+ */
+public class SivaWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int DEFLATE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How the content of the current entry is stored.
+     */
+    private enum Mode {
+        UNDECIDED, RAW, COMPRESSED
+    }
+
+    private final FileChannel channel;
+    private final String sivaFileName;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 checksum = new CRC32();
+    private final List<IndexEntry> blockEntries = new ArrayList<>();
+    private final SivaWriterOptions options;
+    private final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+    private byte[] copyBuffer;
+    private Deflater deflater;
+    private ByteBuffer sample;
+    private byte[] deflateBuffer;
+
+    private long blockStart;
+    private long position;
+    private Header current;
+    private long currentStart;
+    private long currentSize;
+    private Mode mode;
+    private boolean closed;
+
+    /**
+     * Creates a {@link SivaWriter} that writes a new siva file, replacing it if it
+     * already exists.
+     *
+     * @param sivaFile The siva file.
+     * @throws SivaException If the file can not be opened.
+     */
+    public SivaWriter(final File sivaFile) throws SivaException {
+        this(sivaFile, false);
+    }
+
+    /**
+     * Creates a {@link SivaWriter} that writes a siva file. In append mode, new blocks are
+     * added after the existing ones, which are kept unchanged, so their entries can be
+     * overwritten or deleted by the new ones.
+     *
+     * @param sivaFile The siva file.
+     * @param append   whether the new blocks should be appended to an existing file.
+     * @throws SivaException If the file can not be opened, or the existing file is not a
+     *                       valid siva file in append mode.
+     */
+    public SivaWriter(final File sivaFile, final boolean append) throws SivaException {
+        this(sivaFile, SivaWriterOptions.DEFAULT.withAppend(append));
+    }
+
+    /**
+     * Creates a {@link SivaWriter} that writes a siva file with the given options.
+     *
+     * @param sivaFile The siva file.
+     * @param options  settings of the writer.
+     * @throws SivaException If the file can not be opened, or the existing file is not a
+     *                       valid siva file in append mode.
+     * @see #SivaWriter(File, boolean)
+     */
+    public SivaWriter(final File sivaFile, final SivaWriterOptions options)
+            throws SivaException {
+        this.sivaFileName = sivaFile.getName();
+        this.options = options;
+
+        Set<StandardOpenOption> openOptions = EnumSet.of(StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        if (!options.isAppend()) {
+            openOptions.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        try {
+            this.channel = FileChannel.open(sivaFile.toPath(), openOptions);
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error opening siva file.", e);
+        }
+
+        try {
+            this.blockStart = this.channel.size();
+            if (this.blockStart > 0) {
+                this.checkLastBlock();
+            }
+
+            this.channel.position(this.blockStart);
+        } catch (IOException e) {
+            throw this.closeOnError(
+                    new SivaException(sivaFileName, "Error opening siva file.", e));
+        } catch (SivaException e) {
+            throw this.closeOnError(e);
+        }
+
+        this.position = this.blockStart;
+    }
+
+    /**
+     * Checks that the existing file ends with a valid block, reading its index.
+     */
+    private void checkLastBlock() throws SivaException {
+        new IndexReader(this.channel, null, this.sivaFileName, null, null, null,
+                SivaListener.NO_OP, null)
+                .visit(new IndexVisitor() {
+                    @Override
+                    public boolean startIndexBlock(final long start, final long entryCount) {
+                        return false;
+                    }
+
+                    @Override
+                    public boolean visitEntry(final IndexEntry entry) {
+                        return false;
+                    }
+                });
+    }
+
+    private SivaException closeOnError(final SivaException e) {
+        try {
+            this.channel.close();
+        } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+
+        return e;
+    }
+
+    /**
+     * writeHeader starts a new entry in the current block. All the content written until
+     * the next header, or until the block is flushed, belongs to this entry.
+     *
+     * @param header meta information of the entry.
+     * @throws SivaException If the writer is closed.
+     */
+    public final void writeHeader(final Header header) throws SivaException {
+        this.checkOpen();
+        this.endEntry();
+
+        this.current = header;
+        this.currentStart = this.position;
+        this.currentSize = 0;
+        this.checksum.reset();
+        if (this.options.isCompression() && header.getFlag() != Flag.DELETE) {
+            this.mode = Mode.UNDECIDED;
+        } else {
+            this.mode = Mode.RAW;
+        }
+    }
+
+    /**
+     * writeDelete marks an entry as deleted in the current block, so it will not appear
+     * in the filtered indexes of the siva file, even if it was written in a previous
+     * block. Deleted entries have no content. Nothing written before is changed, since
+     * siva files are append only.
+     *
+     * @param name name of the deleted entry.
+     * @throws SivaException If the writer is closed.
+     */
+    public final void writeDelete(final String name) throws SivaException {
+        this.writeHeader(new Header(
+                name,
+                EnumSet.noneOf(PosixFilePermission.class),
+                FileTime.fromMillis(System.currentTimeMillis()),
+                Flag.DELETE
+        ));
+
+        this.endEntry();
+    }
+
+    /**
+     * write adds content to the current entry.
+     *
+     * @param b   content to write.
+     * @param off offset of the content in the array.
+     * @param len length of the content.
+     * @throws SivaException If there is no current entry or some error happens writing
+     *                       the siva file.
+     */
+    public final void write(final byte[] b, final int off, final int len)
+            throws SivaException {
+        this.write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * write adds content to the current entry.
+     *
+     * @param b content to write.
+     * @throws SivaException If there is no current entry or some error happens writing
+     *                       the siva file.
+     */
+    public final void write(final byte[] b) throws SivaException {
+        this.write(b, 0, b.length);
+    }
+
+    /**
+     * write adds the remaining content of the given buffer to the current entry. Content
+     * bigger than the internal buffer is written to the file directly, without copying it,
+     * unless it is compressed.
+     *
+     * @param src content to write, from its position to its limit.
+     * @throws SivaException If there is no current entry or some error happens writing
+     *                       the siva file.
+     */
+    public final void write(final ByteBuffer src) throws SivaException {
+        this.checkOpen();
+        if (this.current == null) {
+            throw new IllegalStateException("writeHeader must be called before write");
+        }
+
+        this.currentSize += src.remaining();
+        if (this.mode == Mode.UNDECIDED) {
+            ByteBuffer sampled = this.getSample();
+            int n = Math.min(src.remaining(), sampled.remaining());
+            ByteBuffer head = src.duplicate();
+            head.limit(head.position() + n);
+            sampled.put(head);
+            src.position(src.position() + n);
+            if (!sampled.hasRemaining()) {
+                this.decide(false);
+            }
+        }
+
+        if (!src.hasRemaining()) {
+            return;
+        }
+
+        if (this.mode == Mode.COMPRESSED) {
+            this.deflate(src);
+        } else {
+            this.writeStored(src);
+        }
+    }
+
+    /**
+     * Writes content of the current entry as it is stored in the siva file.
+     */
+    private void writeStored(final ByteBuffer src) throws SivaException {
+        int len = src.remaining();
+        this.checksum.update(src.duplicate());
+
+        try {
+            if (len > this.buffer.remaining()) {
+                if (len >= this.buffer.capacity()) {
+                    this.buffer.flip();
+                    this.writeFully(this.buffer, src);
+                    this.buffer.clear();
+                    this.position += len;
+                    return;
+                }
+
+                this.drain();
+            }
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error writing siva file.", e);
+        }
+
+        this.buffer.put(src);
+        this.position += len;
+    }
+
+    /**
+     * writeEntry writes a whole entry, with the given header and the content read from
+     * the given stream until its end. The stream is not closed.
+     *
+     * @param header  meta information of the entry.
+     * @param content content of the entry.
+     * @throws SivaException If some error happens reading the content or writing the
+     *                       siva file.
+     */
+    public final void writeEntry(final Header header, final InputStream content)
+            throws SivaException {
+        this.writeHeader(header);
+        if (this.copyBuffer == null) {
+            this.copyBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+
+        try {
+            int n;
+            while ((n = content.read(this.copyBuffer)) >= 0) {
+                this.write(this.copyBuffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error reading entry content.", e);
+        }
+    }
+
+    /**
+     * copyEntry writes an entry read from another siva file, with the same header and
+     * content. The content is transferred from the file of the reader to this one
+     * without copying it to memory, and its CRC32 is taken from the given entry.
+     *
+     * @param reader reader of the siva file that contains the entry.
+     * @param entry  entry obtained from the index of the reader.
+     * @throws SivaException If some error happens reading the entry or writing the siva
+     *                       file.
+     */
+    public final void copyEntry(final SivaReader reader, final IndexEntry entry)
+            throws SivaException {
+        this.checkOpen();
+        this.endEntry();
+
+        try {
+            this.drain();
+
+            FileChannel source = reader.getChannel();
+            long transferred = 0;
+            while (transferred < entry.getSize()) {
+                long n = source.transferTo(entry.getAbsStart() + transferred,
+                        entry.getSize() - transferred, this.channel);
+                if (n <= 0) {
+                    throw new EOFException();
+                }
+
+                transferred += n;
+            }
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error copying entry " + entry.getName()
+                    + ".", e);
+        }
+
+        this.blockEntries.add(new IndexEntry(
+                entry.getNameBytes(),
+                entry.getRawFileMode(),
+                entry.getRawModificationTime(),
+                entry.getFlag(),
+                this.position - this.blockStart,
+                entry.getSize(),
+                entry.getCrc32(),
+                this.position
+        ));
+
+        this.position += entry.getSize();
+    }
+
+    /**
+     * sync flushes the current block and forces all the content written to the siva file
+     * to be written to the storage device.
+     *
+     * @throws SivaException If some error happens writing the siva file.
+     */
+    public final void sync() throws SivaException {
+        this.flush();
+        try {
+            this.channel.force(true);
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error writing siva file.", e);
+        }
+    }
+
+    /**
+     * flush ends the current block, writing the index of the entries written since the
+     * previous block and its footer. Nothing is written if no entry has been written.
+     *
+     * @throws SivaException If some error happens writing the siva file.
+     */
+    public final void flush() throws SivaException {
+        this.checkOpen();
+        this.endEntry();
+        if (this.blockEntries.isEmpty()) {
+            return;
+        }
+
+        int[] offsets = new int[this.blockEntries.size()];
+        ByteBuffer index = this.encodeIndex(offsets);
+        CRC32 indexChecksum = new CRC32();
+        indexChecksum.update(index.duplicate());
+
+        // the name table goes between the content and the index, where other readers
+        // do not look
+        ByteBuffer table = ByteBuffer.allocate(0);
+        if (this.options.isNameTable()) {
+            table = BlockNameTable.encode(this.blockEntries, offsets,
+                    indexChecksum.getValue());
+        }
+
+        long tableSize = table.remaining();
+        long indexSize = index.remaining();
+        long blockSize = this.position - this.blockStart + tableSize + indexSize
+                + IndexReader.INDEX_FOOTER_SIZE;
+
+        ByteBuffer footer = ByteBuffer.allocate((int) IndexReader.INDEX_FOOTER_SIZE);
+        footer.putInt(this.blockEntries.size());
+        footer.putLong(indexSize);
+        footer.putLong(blockSize);
+        footer.putInt((int) indexChecksum.getValue());
+        footer.flip();
+
+        try {
+            this.buffer.flip();
+            this.writeFully(this.buffer, table, index, footer);
+            this.buffer.clear();
+        } catch (IOException e) {
+            throw new SivaException(sivaFileName, "Error writing siva file.", e);
+        }
+
+        this.position += tableSize + indexSize + IndexReader.INDEX_FOOTER_SIZE;
+        this.blockStart = this.position;
+        this.blockEntries.clear();
+    }
+
+    /**
+     * Close flushes the current block and closes the siva file. When it is closed, it
+     * cannot be reused.
+     *
+     * @throws SivaException If some error happens writing or closing the siva file.
+     */
+    public final void close() throws SivaException {
+        if (this.closed) {
+            return;
+        }
+
+        try {
+            this.flush();
+        } finally {
+            this.closed = true;
+            if (this.deflater != null) {
+                this.deflater.end();
+            }
+
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                throw new SivaException(sivaFileName, "Error closing siva writer", e);
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("SivaWriter is closed");
+        }
+    }
+
+    private ByteBuffer getSample() {
+        if (this.sample == null) {
+            this.sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        }
+
+        return this.sample;
+    }
+
+    /**
+     * Decides whether the current entry is compressed, compressing the content kept in
+     * the sample. If it is the whole entry, the exact compressed size is known, otherwise
+     * the compressed size of the sample is used as an estimation. Entries that do not fit
+     * in the sample are decided only by the compression of the sample, whatever the
+     * minimum compressed size is.
+     */
+    private void decide(final boolean last) throws SivaException {
+        this.getSample().flip();
+        boolean compress = !last || this.currentSize >= this.options.getMinCompressedSize();
+        if (compress) {
+            if (this.deflater == null) {
+                this.deflater = new Deflater(this.options.getCompressionLevel(), true);
+                this.deflateBuffer = new byte[DEFLATE_BUFFER_SIZE];
+            }
+
+            this.deflater.setInput(this.sample.array(), 0, this.sample.limit());
+            long compressedSize;
+            if (last) {
+                this.finishDeflater();
+                compressedSize = this.deflated.size() + EntryCompression.TRAILER_SIZE;
+            } else {
+                this.drainDeflater(Deflater.SYNC_FLUSH);
+                compressedSize = this.deflated.size();
+            }
+
+            compress = compressedSize
+                    <= this.options.getMaxCompressionRatio() * this.sample.limit();
+        }
+
+        if (compress) {
+            this.mode = Mode.COMPRESSED;
+            this.writeStored(ByteBuffer.wrap(this.deflated.toByteArray()));
+        } else {
+            this.mode = Mode.RAW;
+            this.writeStored(this.sample);
+            if (this.deflater != null) {
+                this.deflater.reset();
+            }
+        }
+
+        this.deflated.reset();
+        this.sample.clear();
+    }
+
+    private void deflate(final ByteBuffer src) throws SivaException {
+        if (src.hasArray()) {
+            this.deflater.setInput(src.array(), src.arrayOffset() + src.position(),
+                    src.remaining());
+            this.drainDeflater(Deflater.NO_FLUSH);
+            src.position(src.limit());
+            return;
+        }
+
+        if (this.copyBuffer == null) {
+            this.copyBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), this.copyBuffer.length);
+            src.get(this.copyBuffer, 0, n);
+            this.deflater.setInput(this.copyBuffer, 0, n);
+            this.drainDeflater(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Deflates all the input given to the deflater. The output is written to the current
+     * entry once it is compressed, and kept aside while it is undecided.
+     */
+    private void drainDeflater(final int flush) throws SivaException {
+        int n;
+        do {
+            n = this.deflater.deflate(this.deflateBuffer, 0, this.deflateBuffer.length,
+                    flush);
+            this.writeDeflated(n);
+        } while (n == this.deflateBuffer.length || !this.deflater.needsInput());
+    }
+
+    private void finishDeflater() throws SivaException {
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            this.writeDeflated(this.deflater.deflate(this.deflateBuffer));
+        }
+    }
+
+    private void writeDeflated(final int n) throws SivaException {
+        if (n <= 0) {
+            return;
+        }
+
+        if (this.mode == Mode.COMPRESSED) {
+            this.writeStored(ByteBuffer.wrap(this.deflateBuffer, 0, n));
+        } else {
+            this.deflated.write(this.deflateBuffer, 0, n);
+        }
+    }
+
+    private void endEntry() throws SivaException {
+        if (this.current == null) {
+            return;
+        }
+
+        if (this.mode == Mode.UNDECIDED) {
+            this.decide(true);
+        }
+
+        Flag flag = this.current.getFlag();
+        if (this.mode == Mode.COMPRESSED) {
+            if (!this.deflater.finished()) {
+                this.finishDeflater();
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(EntryCompression.TRAILER_SIZE);
+            trailer.putLong(this.currentSize);
+            trailer.flip();
+            this.writeStored(trailer);
+            this.deflater.reset();
+            flag = Flag.COMPRESSED;
+        }
+
+        this.blockEntries.add(new IndexEntry(
+                this.current.getNameBytes(),
+                this.current.getRawFileMode(),
+                this.current.getRawModificationTime(),
+                flag,
+                this.currentStart - this.blockStart,
+                this.position - this.currentStart,
+                this.checksum.getValue(),
+                this.currentStart
+        ));
+
+        this.current = null;
+    }
+
+    /**
+     * @param offsets filled with the offset of each entry from the start of the index.
+     */
+    private ByteBuffer encodeIndex(final int[] offsets) throws SivaException {
+        long size = IndexReader.INDEX_SIGNATURE.length + 1;
+        for (IndexEntry entry : this.blockEntries) {
+            size += IndexReader.INDEX_ENTRY_FIXED_SIZE + entry.getNameBytes().length;
+        }
+
+        // The biggest length allowed by the JVM for a buffer is (2^31)-1 bytes.
+        if (size > MappedRegions.REGION_SIZE) {
+            throw new SivaException(sivaFileName, SivaException.INDEX_TOO_BIG);
+        }
+
+        ByteBuffer index = ByteBuffer.allocate((int) size);
+        index.put(IndexReader.INDEX_SIGNATURE);
+        index.put((byte) IndexReader.INDEX_VERSION);
+        for (int i = 0; i < offsets.length; i++) {
+            IndexEntry entry = this.blockEntries.get(i);
+            byte[] name = entry.getNameBytes();
+            offsets[i] = index.position();
+            index.putInt(name.length);
+            index.put(name);
+            index.putInt(entry.getRawFileMode());
+            index.putLong(entry.getRawModificationTime());
+            index.putLong(entry.getIntStart());
+            index.putLong(entry.getSize());
+            index.putInt((int) entry.getCrc32());
+            index.putInt(entry.getFlag().toInteger());
+        }
+
+        index.flip();
+        return index;
+    }
+
+    private void drain() throws IOException {
+        this.buffer.flip();
+        this.writeFully(this.buffer);
+        this.buffer.clear();
+    }
+
+    private void writeFully(final ByteBuffer... bufs) throws IOException {
+        for (ByteBuffer buf : bufs) {
+            while (buf.hasRemaining()) {
+                this.channel.write(bufs);
+            }
+        }
+    }
+}
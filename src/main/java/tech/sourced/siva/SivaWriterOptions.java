@@ -0,0 +1,163 @@
+package tech.sourced.siva;
+
+import java.util.zip.Deflater;
+
+/**
+ * SivaWriterOptions holds the settings used by a {@link SivaWriter}. Instances are
+ * immutable, every {@code with} method returns a copy with the given setting changed.
+ * <p>
+ * Compression is disabled by default, so the written files can be read by any siva
+ * implementation. Compressed entries are marked with a flag that only this library
+ * knows about.
+ */
+public final class SivaWriterOptions {
+    private static final int DEFAULT_MIN_COMPRESSED_SIZE = 1024;
+    private static final double DEFAULT_MAX_COMPRESSION_RATIO = 0.9;
+
+    /**
+     * Options used by {@link SivaWriter#SivaWriter(java.io.File)}.
+     */
+    public static final SivaWriterOptions DEFAULT = new SivaWriterOptions(false, false,
+            Deflater.DEFAULT_COMPRESSION, DEFAULT_MIN_COMPRESSED_SIZE,
+            DEFAULT_MAX_COMPRESSION_RATIO, false);
+
+    private final boolean append;
+    private final boolean compression;
+    private final int compressionLevel;
+    private final int minCompressedSize;
+    private final double maxCompressionRatio;
+    private final boolean nameTable;
+
+    private SivaWriterOptions(final boolean append, final boolean compression,
+                              final int compressionLevel, final int minCompressedSize,
+                              final double maxCompressionRatio, final boolean nameTable) {
+        this.append = append;
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+        this.minCompressedSize = minCompressedSize;
+        this.maxCompressionRatio = maxCompressionRatio;
+        this.nameTable = nameTable;
+    }
+
+    /**
+     * @param appendBlocks whether the new blocks should be appended to an existing file.
+     * @return a copy of these options with the append mode changed.
+     */
+    public SivaWriterOptions withAppend(final boolean appendBlocks) {
+        return new SivaWriterOptions(appendBlocks, compression, compressionLevel,
+                minCompressedSize, maxCompressionRatio, nameTable);
+    }
+
+    /**
+     * @param compress whether the content of the entries should be compressed with
+     *                 DEFLATE when it is worth it.
+     * @return a copy of these options with the compression mode changed.
+     */
+    public SivaWriterOptions withCompression(final boolean compress) {
+        return new SivaWriterOptions(append, compress, compressionLevel,
+                minCompressedSize, maxCompressionRatio, nameTable);
+    }
+
+    /**
+     * @param level DEFLATE compression level, from 0 to 9, or -1 for the default level.
+     * @return a copy of these options with the compression level changed.
+     * @throws IllegalArgumentException If the level is not valid.
+     */
+    public SivaWriterOptions withCompressionLevel(final int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+
+        return new SivaWriterOptions(append, compression, level,
+                minCompressedSize, maxCompressionRatio, nameTable);
+    }
+
+    /**
+     * @param size entries smaller than this size, in bytes, are always stored as they are.
+     *             The writer keeps in memory up to 64KB of each entry until it decides
+     *             whether to compress it, so entries bigger than 64KB are decided by the
+     *             compression of their first 64KB, even if this size is bigger.
+     * @return a copy of these options with the minimum compressed size changed.
+     * @throws IllegalArgumentException If the size is negative.
+     */
+    public SivaWriterOptions withMinCompressedSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("invalid minimum compressed size: " + size);
+        }
+
+        return new SivaWriterOptions(append, compression, compressionLevel,
+                size, maxCompressionRatio, nameTable);
+    }
+
+    /**
+     * @param ratio entries are only stored compressed if their compressed size divided by
+     *              their size is not bigger than this ratio, between 0 and 1.
+     * @return a copy of these options with the maximum compression ratio changed.
+     * @throws IllegalArgumentException If the ratio is not between 0 and 1.
+     */
+    public SivaWriterOptions withMaxCompressionRatio(final double ratio) {
+        if (!(ratio >= 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("invalid compression ratio: " + ratio);
+        }
+
+        return new SivaWriterOptions(append, compression, compressionLevel,
+                minCompressedSize, ratio, nameTable);
+    }
+
+    /**
+     * @param table whether every block should have a name table before its index, with
+     *              a Bloom filter of its names and the offsets of its entries sorted by
+     *              name, so {@link IndexReader#findEntry(String)} can skip the blocks
+     *              without the name and binary search the others. Other siva readers
+     *              ignore it.
+     * @return a copy of these options with the name table mode changed.
+     */
+    public SivaWriterOptions withNameTable(final boolean table) {
+        return new SivaWriterOptions(append, compression, compressionLevel,
+                minCompressedSize, maxCompressionRatio, table);
+    }
+
+    /**
+     * @return true if new blocks are appended to an existing file instead of replacing it.
+     */
+    public boolean isAppend() {
+        return append;
+    }
+
+    /**
+     * @return true if the content of the entries is compressed when it is worth it.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * @return DEFLATE compression level, {@link Deflater#DEFAULT_COMPRESSION} by default.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @return size in bytes below which entries are never compressed, 1KB by default.
+     */
+    public int getMinCompressedSize() {
+        return minCompressedSize;
+    }
+
+    /**
+     * @return maximum ratio between the compressed and the original size of an entry to
+     * store it compressed, 0.9 by default.
+     */
+    public double getMaxCompressionRatio() {
+        return maxCompressionRatio;
+    }
+
+    /**
+     * @return true if every block has a name table to look up single entries quickly.
+     */
+    public boolean isNameTable() {
+        return nameTable;
+    }
+}
@@ -0,0 +1,207 @@
+package tech.sourced.siva;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * SortedNames has the lookups shared by the indexes that keep their entries sorted by the
+ * unsigned UTF-8 bytes of their names and create the {@link IndexEntry}s on demand,
+ * {@link CompactIndex} and {@link SidecarIndex}.
+ */
+final class SortedNames {
+    private static final int BYTE_MASK = 0xFF;
+
+    private SortedNames() {
+    }
+
+    /**
+     * Compares names by their unsigned UTF-8 bytes, the order entries are sorted by.
+     *
+     * @param a a name encoded in UTF-8.
+     * @param b another name encoded in UTF-8.
+     * @return a negative number, zero or a positive number if a is lower, equal or
+     * greater than b.
+     */
+    static int compare(final byte[] a, final byte[] b) {
+        return compare(a, 0, a.length, b);
+    }
+
+    /**
+     * Compares a name stored in an array with another one by their unsigned UTF-8 bytes.
+     *
+     * @param a      array with the name.
+     * @param offset position of the name in the array.
+     * @param length length of the name.
+     * @param b      another name encoded in UTF-8.
+     * @return a negative number, zero or a positive number if the name is lower, equal or
+     * greater than b.
+     */
+    static int compare(final byte[] a, final int offset, final int length, final byte[] b) {
+        int max = Math.min(length, b.length);
+        for (int i = 0; i < max; i++) {
+            int cmp = (a[offset + i] & BYTE_MASK) - (b[i] & BYTE_MASK);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+
+        return length - b.length;
+    }
+
+    /**
+     * Compares a name stored in a buffer with another one by their unsigned UTF-8 bytes.
+     *
+     * @param buf    buffer with the name.
+     * @param offset absolute position of the name in the buffer.
+     * @param length length of the name.
+     * @param b      another name encoded in UTF-8.
+     * @return a negative number, zero or a positive number if the name is lower, equal or
+     * greater than b.
+     */
+    static int compare(final ByteBuffer buf, final int offset, final int length,
+                       final byte[] b) {
+        int max = Math.min(length, b.length);
+        for (int i = 0; i < max; i++) {
+            int cmp = (buf.get(offset + i) & BYTE_MASK) - (b[i] & BYTE_MASK);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+
+        return length - b.length;
+    }
+
+    /**
+     * @param entry the only entry with a name, or null.
+     * @return the versions of a name in an index without duplicates.
+     */
+    static List<IndexEntry> versions(final IndexEntry entry) {
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+
+        return Collections.singletonList(entry);
+    }
+
+    /**
+     * Returns the entries whose name matches a glob pattern. Only the names starting with
+     * the literal prefix of the pattern are decoded, in a reused buffer, and only the
+     * matching entries are created.
+     *
+     * @param index   index with the entries.
+     * @param pattern glob pattern.
+     * @param seek    function returning a cursor before the first name that is not lower
+     *                than the given one, or a few names before it.
+     * @return the matching entries.
+     */
+    static List<IndexEntry> glob(final Index index, final String pattern,
+                                 final Function<byte[], Cursor> seek) {
+        GlobPattern glob = GlobPattern.compile(pattern);
+        if (glob.isLiteral()) {
+            return new ArrayList<>(index.getVersions(glob.getPrefix()));
+        }
+
+        byte[] prefix = glob.getPrefix().getBytes(StandardCharsets.UTF_8);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        CharBuffer chars = CharBuffer.allocate(0);
+        List<IndexEntry> result = new ArrayList<>();
+
+        Cursor cursor = seek.apply(prefix);
+        while (cursor.next()) {
+            ByteBuffer name = cursor.name();
+            if (compare(name, name.position(), name.remaining(), prefix) < 0) {
+                continue;
+            }
+
+            if (name.remaining() < prefix.length
+                    || compare(name, name.position(), prefix.length, prefix) != 0) {
+                break;
+            }
+
+            if (chars.capacity() < name.remaining()) {
+                chars = CharBuffer.allocate(name.remaining());
+            }
+
+            chars.clear();
+            decoder.reset();
+            CoderResult decoded = decoder.decode(name, chars, true);
+            chars.flip();
+            if (!decoded.isError() && glob.matches(chars)) {
+                result.add(cursor.entry());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a list of entries that creates each entry when it is requested.
+     *
+     * @param size  number of entries.
+     * @param entry function creating the entry at a position.
+     * @return the list of entries.
+     */
+    static List<IndexEntry> entries(final int size, final IntFunction<IndexEntry> entry) {
+        return new EntryList(size, entry);
+    }
+
+    /**
+     * Iterator over the sorted names of an index.
+     */
+    interface Cursor {
+        /**
+         * Moves to the next name.
+         *
+         * @return false if there are no more names.
+         */
+        boolean next();
+
+        /**
+         * @return the current name, between the position and the limit of the buffer.
+         */
+        ByteBuffer name();
+
+        /**
+         * @return a new entry with the current name.
+         */
+        IndexEntry entry();
+    }
+
+    /**
+     * List of the entries of an index, creating each entry when it is requested.
+     */
+    private static final class EntryList extends AbstractList<IndexEntry>
+            implements RandomAccess {
+        private final int size;
+        private final IntFunction<IndexEntry> entry;
+
+        EntryList(final int size, final IntFunction<IndexEntry> entry) {
+            this.size = size;
+            this.entry = entry;
+        }
+
+        @Override
+        public IndexEntry get(final int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+
+            return entry.apply(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
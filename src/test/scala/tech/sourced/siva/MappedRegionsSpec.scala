@@ -0,0 +1,97 @@
+package tech.sourced.siva
+
+import java.io.{File, FileOutputStream, InputStream}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.{ForkJoinPool, TimeUnit}
+
+import org.apache.commons.io.IOUtils
+import org.scalatest._
+import tech.sourced.siva.test.SyntheticSiva
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+// Unlike the other specs, this one lives in the tech.sourced.siva package instead of
+// tech.sourced.siva.test: it needs package-private access to MappedRegions and to the
+// SivaReader constructor that takes a region size, to test regions smaller than the file.
+class MappedRegionsSpec extends FlatSpec with Matchers {
+  private def bytes(buffers: ByteBuffer*): Array[Byte] = {
+    buffers.flatMap(buf => {
+      val result = new Array[Byte](buf.remaining())
+      buf.duplicate().get(result)
+      result
+    }).toArray
+  }
+
+  "MappedRegions" should "slice ranges inside, across and past its regions" in {
+    val content = Array.tabulate[Byte](100)(_.toByte)
+    val file = File.createTempFile("regions-", ".bin")
+    file.deleteOnExit()
+    val out = new FileOutputStream(file)
+    out.write(content)
+
+    val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+    val regions = new MappedRegions(channel, 16)
+    regions.getLength should be(100)
+
+    for (start <- 0 to 100; size <- 0 to 100 - start) {
+      val expected = content.slice(start, start + size)
+      bytes(regions.slice(start, size)) should be(expected)
+      val slices = regions.slices(start, size)
+      bytes(slices: _*) should be(expected)
+      slices.length should be((Math.max(start, start + size - 1) / 16 - start / 16 + 1).toInt)
+    }
+
+    // the file grows after it is mapped
+    val appended = Array.tabulate[Byte](40)(i => (100 + i).toByte)
+    out.write(appended)
+    out.close()
+    val grown = content ++ appended
+
+    bytes(regions.slice(95, 30)) should be(grown.slice(95, 125))
+    bytes(regions.slices(90, 50): _*) should be(grown.slice(90, 140))
+    regions.slices(90, 50).length should be(4)
+    channel.close()
+  }
+
+  "SivaReader" should "read entries and indexes split between mapped regions" in {
+    val file = SyntheticSiva.append(
+      SyntheticSiva.temp(blocks = 3, entriesPerBlock = 20, bodySize = 100),
+      firstBlock = 3, blocks = 1, entriesPerBlock = 10, bodySize = 300)
+    val expected = new SivaReader(file)
+    val entries = expected.getIndex.getCompleteIndex.getEntries.asScala
+    val options = SivaReaderOptions.DEFAULT.withMemoryMapped(true)
+
+    // regions smaller than the entries, the indexes and the footers
+    Seq(7L, 64L, 1000L).foreach(regionSize => {
+      val reader = new SivaReader(file, options, regionSize)
+      reader.getIndex.getCompleteIndex.getEntries.asScala.map(_.getAbsStart) should be(
+        entries.map(_.getAbsStart))
+      reader.getIndex.findEntry(SyntheticSiva.entryName(3)).getAbsStart should be(
+        expected.getIndex.getFilteredIndex.getEntry(SyntheticSiva.entryName(3)).getAbsStart)
+
+      entries.foreach(e => {
+        val content = IOUtils.toByteArray(expected.getEntry(e))
+        IOUtils.toByteArray(reader.getEntry(e)) should be(content)
+        IOUtils.toByteArray(reader.getVerifiedEntry(e)) should be(content)
+        bytes(reader.getEntryBuffer(e)) should be(content)
+        bytes(reader.readEntryAsync(e).get(10, TimeUnit.SECONDS)) should be(content)
+      })
+
+      val extracted = mutable.ArrayBuffer[Seq[Byte]]()
+      reader.extractAll(entries.asJava, new EntrySink {
+        override def accept(entry: IndexEntry, content: InputStream): Unit =
+          extracted += IOUtils.toByteArray(content).toSeq
+      })
+      extracted should be(entries.sortBy(_.getAbsStart).map(e =>
+        IOUtils.toByteArray(expected.getEntry(e)).toSeq))
+
+      reader.verifyAll(ForkJoinPool.commonPool())
+      reader.close()
+    })
+
+    expected.close()
+  }
+}
@@ -0,0 +1,90 @@
+package tech.sourced.siva.test
+
+import java.io.File
+import java.nio.file.{FileSystems, Paths}
+import java.nio.file.attribute.{FileTime, PosixFilePermissions}
+import java.util.regex.PatternSyntaxException
+
+import org.scalatest._
+import tech.sourced.siva.{Header, SivaReader, SivaWriter}
+
+import scala.collection.JavaConverters._
+
+class GlobSpec extends FlatSpec with Matchers {
+  private val names = Seq("a", "ab", "a-", "a*b", "a?b", "a[b", "a\\b", "a,b", "a}", "{a",
+    "^", "!", "-", "b", "c", "x", "[x]", "dir/a", "dir/b", "dir/sub/a")
+
+  private val file = {
+    val file = File.createTempFile("glob-", ".siva")
+    file.deleteOnExit()
+    val writer = new SivaWriter(file)
+    val mode = PosixFilePermissions.fromString("rw-r--r--")
+    names.foreach(name => {
+      writer.writeHeader(new Header(name, mode, FileTime.fromMillis(0)))
+      writer.write(name.getBytes)
+    })
+    writer.close()
+    file
+  }
+
+  private def glob(pattern: String): Seq[String] = {
+    val reader = new SivaReader(file)
+    val index = reader.getIndex
+    val matched = index.getFilteredIndex.glob(pattern).asScala.map(_.getName).sorted
+    index.getCompleteIndex.glob(pattern).asScala.map(_.getName).sorted should be(matched)
+    index.getCompactIndex.glob(pattern).asScala.map(_.getName).sorted should be(matched)
+    reader.close()
+
+    val matcher = FileSystems.getDefault.getPathMatcher("glob:" + pattern)
+    matched should be(names.filter(n => matcher.matches(Paths.get(n))).sorted)
+    matched
+  }
+
+  "Glob" should "match escaped metacharacters literally" in {
+    glob("a\\*b") should be(Seq("a*b"))
+    glob("a\\?b") should be(Seq("a?b"))
+    glob("a\\[b") should be(Seq("a[b"))
+    glob("a\\\\b") should be(Seq("a\\b"))
+    glob("\\{a") should be(Seq("{a"))
+    glob("a\\,b") should be(Seq("a,b"))
+    glob("a?b") should be(Seq("a*b", "a,b", "a?b", "a[b", "a\\b"))
+  }
+
+  it should "match the first characters of a class as the glob syntax says" in {
+    glob("[!a-c]") should be(Seq("!", "-", "^", "x"))
+    glob("[^x]") should be(Seq("^", "x"))
+    glob("[-x]") should be(Seq("-", "x"))
+    glob("[!-a]") should be(Seq("!", "^", "b", "c", "x"))
+    glob("[[]x]") should be(Seq("[x]"))
+  }
+
+  it should "take a hyphen at the end of a class as a literal" in {
+    glob("a[b-]") should be(Seq("a-", "ab"))
+    glob("[a-c]") should be(Seq("a", "b", "c"))
+  }
+
+  it should "match wildcards within or across name components" in {
+    glob("dir/*") should be(Seq("dir/a", "dir/b"))
+    glob("dir/**") should be(Seq("dir/a", "dir/b", "dir/sub/a"))
+    glob("**/a") should be(Seq("dir/a", "dir/sub/a"))
+    glob("dir?a") shouldBe empty
+    glob("dir[!x]a") shouldBe empty
+    glob("*") should not contain "dir/a"
+  }
+
+  it should "match any of the alternatives of a group" in {
+    glob("a{,b}") should be(Seq("a", "ab"))
+    glob("{dir/*,a?b,x}") should be(
+      Seq("a*b", "a,b", "a?b", "a[b", "a\\b", "dir/a", "dir/b", "x"))
+    glob("a}") should be(Seq("a}"))
+    glob("a,b") should be(Seq("a,b"))
+  }
+
+  it should "reject invalid patterns" in {
+    val reader = new SivaReader(file)
+    val index = reader.getIndex.getFilteredIndex
+    Seq("{a,{b}}", "dir[/]a", "[a-/]", "[c-a]", "[a-c-e]", "[ab", "{a,b", "a\\").foreach(
+      pattern => a[PatternSyntaxException] should be thrownBy index.glob(pattern))
+    reader.close()
+  }
+}
@@ -0,0 +1,40 @@
+package tech.sourced.siva.test
+
+import java.io.File
+
+import org.scalameter.api._
+import org.scalameter.picklers.noPickler._
+import tech.sourced.siva.{Index, SivaReader}
+
+/**
+  * Compares the memory retained by the filtered and the compact indexes of big
+  * synthetic siva files, in kilobytes.
+  */
+object IndexFootprintBenchmark extends Bench.Forked[Double] {
+  def aggregator: Aggregator[Double] = Aggregator.median
+  def measurer: Measurer[Double] = new Measurer.MemoryFootprint
+
+  val archives: Gen[File] = Gen.enumeration("archive")(
+    SyntheticSiva.temp(blocks = 1, entriesPerBlock = 100000, bodySize = 16),
+    SyntheticSiva.temp(blocks = 100, entriesPerBlock = 10000, bodySize = 16)
+  )
+
+  performance of "IndexFootprint" in {
+    measure method "FilteredIndex" in {
+      using(archives) in {
+        f => read(f, r => r.getIndex.getFilteredIndex)
+      }
+    }
+
+    measure method "CompactIndex" in {
+      using(archives) in {
+        f => read(f, r => r.getIndex.getCompactIndex)
+      }
+    }
+  }
+
+  private def read(file: File, index: SivaReader => Index): Index = {
+    val reader = new SivaReader(file)
+    try index(reader) finally reader.close()
+  }
+}
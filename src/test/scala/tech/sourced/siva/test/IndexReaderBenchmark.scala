@@ -0,0 +1,100 @@
+package tech.sourced.siva.test
+
+import java.io.{File, RandomAccessFile}
+import java.nio.channels.FileChannel
+import java.util.concurrent.ForkJoinPool
+import java.util.zip.CRC32
+
+import org.scalameter.api._
+import org.scalameter.picklers.noPickler._
+import tech.sourced.siva.SivaReader
+
+/**
+  * Compares reading the index of big synthetic siva files in a single read per
+  * block, sequentially and in parallel, with the previous approach of a
+  * RandomAccessFile call per field.
+  */
+object IndexReaderBenchmark extends Bench.ForkedTime {
+  val archives: Gen[File] = Gen.enumeration("archive")(
+    SyntheticSiva.temp(blocks = 10, entriesPerBlock = 10000, bodySize = 16),
+    SyntheticSiva.temp(blocks = 1000, entriesPerBlock = 100, bodySize = 16)
+  )
+
+  performance of "IndexRead" in {
+    measure method "BlockRead" in {
+      using(archives) in {
+        f => {
+          val reader = new SivaReader(f)
+          reader.getIndex.getCompleteIndex
+          reader.close()
+        }
+      }
+    }
+
+    measure method "ParallelBlockRead" in {
+      using(archives) in {
+        f => {
+          val reader = new SivaReader(f)
+          reader.getIndex.getCompleteIndex(ForkJoinPool.commonPool())
+          reader.close()
+        }
+      }
+    }
+
+    measure method "FieldRead" in {
+      using(archives) in {
+        f => {
+          val file = new RandomAccessFile(f, "r")
+          FieldIndexReader.read(file)
+          file.close()
+        }
+      }
+    }
+  }
+}
+
+/**
+  * Index reader doing a RandomAccessFile call per field, as the library used to do.
+  */
+object FieldIndexReader {
+  private val IndexFooterSize = 24
+
+  def read(file: RandomAccessFile): Long = {
+    var entries = 0L
+    var endOfBlock = file.length()
+    while (endOfBlock > 0) {
+      file.seek(endOfBlock - IndexFooterSize)
+      val entryCount = file.readInt() & 0xFFFFFFFFL
+      val indexSize = file.readLong()
+      val blockSize = file.readLong()
+      val crc32 = file.readInt() & 0xFFFFFFFFL
+
+      val startOfIndex = endOfBlock - IndexFooterSize - indexSize
+      file.seek(startOfIndex)
+      val signature = new Array[Byte](3)
+      file.readFully(signature)
+      file.readUnsignedByte()
+
+      for (_ <- 0L until entryCount) {
+        val name = new Array[Byte](file.readInt())
+        file.readFully(name)
+        new String(name, "UTF-8")
+        file.readInt()
+        file.readLong()
+        file.readLong()
+        file.readLong()
+        file.readInt()
+        file.readInt()
+        entries += 1
+      }
+
+      val checksum = new CRC32()
+      checksum.update(file.getChannel.map(FileChannel.MapMode.READ_ONLY, startOfIndex, indexSize))
+      require(checksum.getValue == crc32)
+
+      endOfBlock -= blockSize
+    }
+
+    entries
+  }
+}
@@ -0,0 +1,117 @@
+package tech.sourced.siva.test
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, File, FilterInputStream,
+  InputStream}
+import java.nio.channels.{Channels, FileChannel}
+import java.nio.file.{Files, StandardOpenOption}
+
+import org.apache.commons.io.IOUtils
+import org.scalatest.{FlatSpec, Matchers}
+import tech.sourced.siva.RangeInputStream
+
+class RangeInputStreamSpec extends FlatSpec with Matchers {
+  private val content = Array.tabulate[Byte](100000)(i => (i * 7).toByte)
+  private val start = 1000
+  private val rangeSize = 50000
+  private val range = content.slice(start, start + rangeSize)
+
+  private def withChannel(f: FileChannel => Unit): Unit = {
+    val file = File.createTempFile("range", ".bin")
+    file.deleteOnExit()
+    Files.write(file.toPath, content)
+    val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+    try {
+      f(channel)
+    } finally {
+      channel.close()
+    }
+  }
+
+  /**
+    * Stream returning a single byte on each read, like a parent doing short reads.
+    */
+  private def shortReads(is: InputStream): InputStream = new FilterInputStream(is) {
+    override def read(b: Array[Byte], off: Int, len: Int): Int = super.read(b, off, 1)
+  }
+
+  "RangeInputStream" should "read the range of a parent stream with short reads" in {
+    val parent = shortReads(new ByteArrayInputStream(content))
+    parent.skip(start)
+    val is = new RangeInputStream(parent, rangeSize)
+
+    is.available() should be(rangeSize)
+    IOUtils.toByteArray(is) should be(range)
+    is.read() should be(-1)
+    parent.read() should be(content(start + rangeSize) & 0xFF)
+  }
+
+  it should "return -1 when the parent stream ends before the range" in {
+    val is = new RangeInputStream(new ByteArrayInputStream(Array[Byte](-1)), 10)
+
+    is.read() should be(0xFF)
+    is.read() should be(-1)
+  }
+
+  it should "skip in a parent stream without going past the range" in {
+    val is = new RangeInputStream(new ByteArrayInputStream(content), rangeSize)
+
+    is.skip(10) should be(10)
+    is.read() should be(content(10) & 0xFF)
+    is.skip(rangeSize) should be(rangeSize - 11)
+    is.read() should be(-1)
+  }
+
+  it should "skip and report the bytes available in a channel" in {
+    withChannel(channel => {
+      val is = new RangeInputStream(channel, start, rangeSize)
+      is.available() should be(rangeSize)
+
+      is.read() should be(range(0) & 0xFF)
+      is.available() should be(rangeSize - 1)
+
+      is.skip(100) should be(100)
+      is.available() should be(rangeSize - 101)
+      is.read() should be(range(101) & 0xFF)
+
+      is.skip(20000) should be(20000)
+      val rest = IOUtils.toByteArray(is)
+      rest should be(range.drop(20102))
+
+      is.skip(10) should be(0)
+      is.available() should be(0)
+      channel.position() should be(0)
+    })
+  }
+
+  it should "transfer the rest of the range to a stream or a channel" in {
+    withChannel(channel => {
+      val is = new RangeInputStream(channel, start, rangeSize)
+      is.read() should be(range(0) & 0xFF)
+      val out = new ByteArrayOutputStream()
+      is.transferTo(out) should be(rangeSize - 1)
+      out.toByteArray should be(range.drop(1))
+      is.read() should be(-1)
+
+      val target = File.createTempFile("transfer", ".bin")
+      target.deleteOnExit()
+      val targetChannel = FileChannel.open(target.toPath, StandardOpenOption.WRITE)
+      new RangeInputStream(channel, start, rangeSize).transferTo(targetChannel) should be(rangeSize)
+      targetChannel.close()
+      Files.readAllBytes(target.toPath) should be(range)
+
+      val parentOut = new ByteArrayOutputStream()
+      new RangeInputStream(new ByteArrayInputStream(content), rangeSize)
+        .transferTo(Channels.newChannel(parentOut)) should be(rangeSize)
+      parentOut.toByteArray should be(content.take(rangeSize))
+    })
+  }
+
+  it should "stop transferring at the end of the file" in {
+    withChannel(channel => {
+      val is = new RangeInputStream(channel, content.length - 10, 100)
+      val out = new ByteArrayOutputStream()
+      is.transferTo(out) should be(10)
+      out.toByteArray should be(content.takeRight(10))
+    })
+  }
+}
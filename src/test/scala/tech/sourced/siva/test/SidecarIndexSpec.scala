@@ -0,0 +1,111 @@
+package tech.sourced.siva.test
+
+import java.io.RandomAccessFile
+import java.nio.file.{Files, Paths}
+import java.nio.file.attribute.{BasicFileAttributes, PosixFilePermissions}
+
+import org.apache.commons.io.FileUtils
+import org.scalatest._
+import tech.sourced.siva.{IndexEntry, SivaReader, SivaReaderOptions}
+
+import scala.collection.JavaConverters._
+
+class SidecarIndexSpec extends FlatSpec with Matchers {
+  "sidecar index" should "be written and mapped the next time the file is opened" in {
+    val file = SyntheticSiva.append(
+      SyntheticSiva.temp(blocks = 5, entriesPerBlock = 30, bodySize = 10),
+      firstBlock = 5, blocks = 1, entriesPerBlock = 20, bodySize = 10, deleted = _ % 3 == 0)
+    val sidecar = Paths.get(file.getPath + ".idx")
+    sidecar.toFile.deleteOnExit()
+    val options = SivaReaderOptions.DEFAULT.withSidecarIndex(true)
+    def fileKey(): AnyRef = Files.readAttributes(sidecar, classOf[BasicFileAttributes]).fileKey
+    def fields(e: IndexEntry): Seq[Any] = Seq(e.getName, e.getFileMode, e.getModificationTime,
+      e.getIntStart, e.getAbsStart, e.getSize, e.getCrc32)
+
+    val expected = new SivaReader(file).getIndex.getFilteredIndex
+    val perms = PosixFilePermissions.fromString("rw-r-----")
+    Files.setPosixFilePermissions(file.toPath, perms)
+
+    val first = new SivaReader(file, options)
+    first.getIndex.getFilteredIndex.getEntries.asScala.map(fields) should
+      contain theSameElementsAs expected.getEntries.asScala.map(fields)
+    first.close()
+    Files.getPosixFilePermissions(sidecar) should be(perms)
+    val key = fileKey()
+
+    val second = new SivaReader(file, options)
+    val index = second.getIndex.getFilteredIndex
+    fileKey() should be(key)
+
+    index.getEntries.asScala.map(fields) should contain theSameElementsAs
+      expected.getEntries.asScala.map(fields)
+    index.getEntries.asScala.map(_.getName) shouldBe sorted
+    (0 until 32).map(SyntheticSiva.entryName).foreach(name => {
+      Option(index.getEntry(name)).map(fields) should be(
+        Option(expected.getEntry(name)).map(fields))
+      index.getVersions(name).size() should be(expected.getVersions(name).size())
+    })
+    ("objects/0?/*" :: "objects/1[0-5]/**" :: "**" :: Nil).foreach(pattern =>
+      index.glob(pattern).asScala.map(fields) should contain theSameElementsAs
+        expected.glob(pattern).asScala.map(fields))
+    Utils.checkEntries(index.getEntries, second)
+    second.close()
+  }
+
+  it should "be written again if the siva file has changed or it is not valid" in {
+    val file = SyntheticSiva.temp(blocks = 2, entriesPerBlock = 10, bodySize = 10)
+    val sidecar = Paths.get(file.getPath + ".idx")
+    sidecar.toFile.deleteOnExit()
+    val options = SivaReaderOptions.DEFAULT.withSidecarIndex(true)
+
+    new SivaReader(file, options).getIndex.getFilteredIndex.getEntries.size() should be(10)
+
+    SyntheticSiva.append(file, firstBlock = 2, blocks = 1, entriesPerBlock = 15, bodySize = 10)
+    val reader = new SivaReader(file, options)
+    reader.getIndex.getFilteredIndex.getEntries.size() should be(15)
+    Utils.checkEntries(reader.getIndex.getFilteredIndex.getEntries, reader)
+    reader.close()
+
+    FileUtils.writeStringToFile(sidecar.toFile, "not a sidecar index")
+    new SivaReader(file, options).getIndex.getCompactIndex.getEntries.size() should be(15)
+    Files.size(sidecar) should be > 19L
+
+    val reopened = new SivaReader(file, options)
+    val mapped = reopened.getIndex.getCompactIndex
+    mapped.getClass.getSimpleName should be("SidecarIndex")
+    SyntheticSiva.append(file, firstBlock = 3, blocks = 1, entriesPerBlock = 5, bodySize = 10)
+    val refreshed = reopened.getIndex.refresh(mapped)
+    refreshed.getClass.getSimpleName should be("CompactIndex")
+    refreshed.getEntries.size() should be(15)
+    reopened.close()
+  }
+
+  it should "be written again if its entries point outside of the files" in {
+    val file = SyntheticSiva.temp(blocks = 2, entriesPerBlock = 10, bodySize = 10)
+    val sidecar = Paths.get(file.getPath + ".idx")
+    sidecar.toFile.deleteOnExit()
+    val options = SivaReaderOptions.DEFAULT.withSidecarIndex(true)
+    val expected = new SivaReader(file).getIndex.getFilteredIndex.getEntries.asScala
+      .map(_.getName).sorted
+    new SivaReader(file, options).getIndex.getFilteredIndex
+    val valid = FileUtils.readFileToByteArray(sidecar.toFile)
+
+    // the length of the first name, the start and the size of the last entry
+    Seq(36L -> Int.MaxValue.toLong, (32L + 9 * 52 + 24) -> file.length(),
+      (32L + 9 * 52 + 40) -> Long.MaxValue).foreach { case (offset, value) =>
+      val raf = new RandomAccessFile(sidecar.toFile, "rw")
+      raf.seek(offset)
+      if (offset == 36) raf.writeInt(value.toInt) else raf.writeLong(value)
+      raf.close()
+
+      val reader = new SivaReader(file, options)
+      val index = reader.getIndex.getFilteredIndex
+      index.getClass.getSimpleName should be("FilteredIndex")
+      index.getEntries.asScala.map(_.getName).sorted should be(expected)
+      Utils.checkEntries(index.getEntries, reader)
+      reader.close()
+
+      FileUtils.readFileToByteArray(sidecar.toFile) should be(valid)
+    }
+  }
+}
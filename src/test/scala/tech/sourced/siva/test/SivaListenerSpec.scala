@@ -0,0 +1,209 @@
+package tech.sourced.siva.test
+
+import java.io.{IOException, InputStream, RandomAccessFile}
+import java.util.concurrent.{Callable, CyclicBarrier, ExecutionException, Executors}
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.commons.io.IOUtils
+import org.scalatest.{FlatSpec, Matchers}
+import tech.sourced.siva.{EntrySink, HistogramListener, Index, IndexCache, IndexEntry,
+  SivaException, SivaListener, SivaReader, SivaReaderOptions}
+
+import scala.collection.JavaConverters._
+
+class SivaListenerSpec extends FlatSpec with Matchers {
+
+  "HistogramListener" should "record the index loads and cache hits" in {
+    val file = SyntheticSiva.temp(blocks = 5, entriesPerBlock = 20, bodySize = 10)
+    val listener = new HistogramListener()
+    val options = SivaReaderOptions.DEFAULT
+      .withIndexCache(new IndexCache(1024 * 1024))
+      .withListener(listener)
+    val sivaReader = new SivaReader(file, options)
+
+    val index = sivaReader.getIndex.getFilteredIndex
+    sivaReader.getIndex.getFilteredIndex
+
+    listener.getIndexLoadNanos.getCount should be(1)
+    listener.getIndexLoadNanos.getMax should be > 0L
+    listener.getIndexBlocks should be(5)
+    listener.getIndexEntries should be(100)
+    listener.getIndexBytes should be > 0L
+    listener.getIndexBytes should be < file.length()
+    listener.getIndexCacheHits should be(1)
+    listener.getIndexLoadNanosByFile.asScala.keySet should be(Set(file.getName))
+
+    SyntheticSiva.append(file, firstBlock = 5, blocks = 2, entriesPerBlock = 20, bodySize = 10)
+    sivaReader.getIndex.refresh(index)
+
+    listener.getIndexLoadNanos.getCount should be(2)
+    listener.getIndexBlocks should be(7)
+    listener.getIndexEntries should be(140)
+
+    sivaReader.close()
+  }
+
+  it should "record the bytes read from each entry when it is closed" in {
+    val file = SyntheticSiva.temp(blocks = 1, entriesPerBlock = 10, bodySize = 100)
+    val listener = new HistogramListener()
+    val sivaReader = new SivaReader(file, SivaReaderOptions.DEFAULT.withListener(listener))
+    val entries = sivaReader.getIndex.getFilteredIndex.getEntries.asScala
+
+    entries.foreach(e => {
+      val is = sivaReader.getEntry(e)
+      IOUtils.toByteArray(is)
+      is.close()
+      is.close()
+    })
+
+    val partial = sivaReader.getEntry(entries.head)
+    partial.skip(10)
+    partial.read(new Array[Byte](20))
+    partial.close()
+
+    val notClosed = sivaReader.getEntry(entries.head)
+    IOUtils.toByteArray(notClosed)
+
+    listener.getEntriesOpened should be(12)
+    listener.getEntriesOpenedByFile.get(file.getName) should be(12)
+    listener.getEntryBytes.getCount should be(11)
+    listener.getEntryBytes.getSum should be(10 * 100 + 30)
+    listener.getEntryBytes.getMax should be(100)
+    listener.getEntryReadNanos.getCount should be(11)
+
+    sivaReader.close()
+  }
+
+  it should "record the entries extracted by extractAll" in {
+    val file = SyntheticSiva.temp(blocks = 2, entriesPerBlock = 10, bodySize = 100)
+
+    // unmapped readers read runs of entries together, mapped ones read each entry on its own
+    Seq(false, true).foreach(mapped => {
+      val listener = new HistogramListener()
+      val sivaReader = new SivaReader(file, SivaReaderOptions.DEFAULT
+        .withListener(listener)
+        .withMemoryMapped(mapped))
+      val entries = sivaReader.getIndex.getFilteredIndex.getEntries.asScala
+
+      sivaReader.extractAll(entries.asJava, new EntrySink {
+        override def accept(entry: IndexEntry, content: InputStream): Unit =
+          IOUtils.toByteArray(content)
+      })
+
+      listener.getEntriesOpened should be(entries.size)
+      listener.getEntryReadNanos.getCount should be(entries.size)
+      listener.getEntryBytes.getSum should be(entries.map(_.getSize).sum)
+      sivaReader.close()
+    })
+  }
+
+  it should "record the CRC mismatches and failures" in {
+    val file = SyntheticSiva.temp(blocks = 1, entriesPerBlock = 3, bodySize = 100)
+    val raf = new RandomAccessFile(file, "rw")
+    raf.seek(150)
+    val b = raf.read()
+    raf.seek(150)
+    raf.write(~b)
+    raf.close()
+
+    val listener = new HistogramListener()
+    val sivaReader = new SivaReader(file, SivaReaderOptions.DEFAULT.withListener(listener))
+    val entries = sivaReader.getIndex.getCompleteIndex.getEntries.asScala
+
+    an[IOException] should be thrownBy IOUtils.toByteArray(sivaReader.getVerifiedEntry(entries(1)))
+    a[SivaException] should be thrownBy sivaReader.verifyAll(java.util.concurrent.ForkJoinPool
+      .commonPool())
+
+    listener.getCrcMismatches should be(2)
+    listener.getFailures should be(2)
+    listener.getFailuresByFile.get(file.getName) should be(2)
+    listener.getFailuresByCause.get(classOf[SivaException].getName) should be(2)
+    sivaReader.close()
+
+    // corrupt the index of the block
+    val index = new RandomAccessFile(file, "rw")
+    index.seek(file.length() - 30)
+    val i = index.read()
+    index.seek(file.length() - 30)
+    index.write(~i)
+    index.close()
+
+    val corrupted = new SivaReader(file, SivaReaderOptions.DEFAULT.withListener(listener))
+    a[SivaException] should be thrownBy corrupted.getIndex.getFilteredIndex
+    listener.getCrcMismatches should be(3)
+    listener.getFailures should be(3)
+    // the complete index read by the first reader, and again by verifyAll
+    listener.getIndexLoadNanos.getCount should be(2)
+    corrupted.close()
+
+    listener.reset()
+    listener.getFailures should be(0)
+    listener.getFailuresByFile.isEmpty should be(true)
+  }
+
+  "Histogram" should "approximate the percentiles with powers of 2" in {
+    val file = SyntheticSiva.temp(blocks = 1, entriesPerBlock = 100, bodySize = 1000)
+    val listener = new HistogramListener()
+    val sivaReader = new SivaReader(file, SivaReaderOptions.DEFAULT.withListener(listener))
+    val entries = sivaReader.getIndex.getFilteredIndex.getEntries.asScala
+
+    entries.zipWithIndex.foreach { case (e, i) =>
+      val is = sivaReader.getEntry(e)
+      is.skip(i * 10)
+      is.close()
+    }
+
+    val bytes = listener.getEntryBytes
+    bytes.getCount should be(100)
+    bytes.getMax should be(990)
+    bytes.getMean should be(495.0)
+    bytes.getPercentile(0) should be(0)
+    bytes.getPercentile(1) should be(0)
+    bytes.getPercentile(50) should be(511)
+    bytes.getPercentile(100) should be(990)
+    an[IllegalArgumentException] should be thrownBy bytes.getPercentile(101)
+
+    sivaReader.close()
+  }
+
+  "SivaReader" should "load an index once when many threads ask for it at the same time" in {
+    val loads = new AtomicInteger()
+    val listener = new SivaListener {
+      override def indexLoaded(sivaFileName: String, durationNanos: Long, blocks: Long,
+                               entries: Long, bytes: Long): Unit = {
+        loads.incrementAndGet()
+        // give the other threads time to ask for the index while it is being loaded
+        Thread.sleep(200)
+      }
+    }
+    val file = SyntheticSiva.temp(blocks = 50, entriesPerBlock = 100, bodySize = 16)
+    val sivaReader = new SivaReader(file, SivaReaderOptions.DEFAULT.withListener(listener))
+
+    val threads = 8
+    val barrier = new CyclicBarrier(threads)
+    val pool = Executors.newFixedThreadPool(threads)
+    try {
+      val tasks = (1 to threads).map(_ => pool.submit(new Callable[Index] {
+        override def call(): Index = {
+          barrier.await()
+          sivaReader.getIndex.getFilteredIndex
+        }
+      }))
+
+      val indexes = tasks.map(t => try t.get() catch {
+        case e: ExecutionException => throw e.getCause
+      })
+      indexes.foreach(_ should be theSameInstanceAs indexes.head)
+      indexes.head.getEntries.size() should be(100)
+      loads.get() should be(1)
+    } finally {
+      pool.shutdown()
+    }
+
+    // loads that do not overlap are not shared
+    sivaReader.getIndex.getFilteredIndex should not be theSameInstanceAs(
+      sivaReader.getIndex.getFilteredIndex)
+    loads.get() should be(3)
+    sivaReader.close()
+  }
+}
@@ -1,5 +1,7 @@
 package tech.sourced.siva.test
 
+import java.util.concurrent.{Callable, Executors}
+
 import org.scalameter.api._
 import org.scalameter.picklers.noPickler._
 
@@ -13,6 +15,10 @@ object SivaReaderBenchmark extends Bench.ForkedTime {
     "overwritten.siva"
   )
 
+  val threads: Gen[Int] = Gen.exponential("threads")(1, 32, 2)
+
+  val concurrentReads = 256
+
   performance of "Read" in {
     measure method "CompleteIndex" in {
       using(files) in {
@@ -54,5 +60,24 @@ object SivaReaderBenchmark extends Bench.ForkedTime {
         }
       }
     }
+
+    measure method "ConcurrentEntries" in {
+      using(threads) in {
+        t => {
+          val reader = Utils.getReader("overwritten.siva")
+          val entries = reader.getIndex.getCompleteIndex.getEntries
+          val pool = Executors.newFixedThreadPool(t)
+
+          val tasks = (1 to t).map(_ => pool.submit(new Callable[Unit] {
+            override def call(): Unit =
+              (1 to concurrentReads / t).foreach(_ => Utils.checkEntries(entries, reader))
+          }))
+
+          tasks.foreach(_.get())
+          pool.shutdown()
+          reader.close()
+        }
+      }
+    }
   }
 }
@@ -0,0 +1,122 @@
+package tech.sourced.siva.test
+
+import java.io.{File, IOException, InputStream, UncheckedIOException}
+import java.nio.channels.ClosedChannelException
+
+import org.apache.commons.io.IOUtils
+import org.scalatest._
+import tech.sourced.siva.{IndexEntry, SivaListener, SivaReader, SivaReaderOptions, SivaReaderPool}
+
+import scala.collection.JavaConverters._
+
+class SivaReaderPoolSpec extends FlatSpec with Matchers {
+  private val files = (0 until 3).map(_ =>
+    SyntheticSiva.temp(blocks = 2, entriesPerBlock = 5, bodySize = 100))
+
+  "SivaReaderPool" should "reuse the readers of the files already open" in {
+    val pool = new SivaReaderPool(2)
+
+    val first = pool.acquire(files(0))
+    val reader = first.getReader
+    val index = first.getFilteredIndex
+    first.close()
+
+    val second = pool.acquire(files(0))
+    second.getReader should be theSameInstanceAs reader
+    second.getFilteredIndex should be theSameInstanceAs index
+    Utils.checkEntries(index.getEntries, second.getReader)
+    second.close()
+
+    pool.getOpenCount should be(1)
+    pool.getHitCount should be(1)
+    pool.getEvictionCount should be(0)
+    pool.size() should be(1)
+    pool.close()
+  }
+
+  it should "evict the least recently used readers" in {
+    val pool = new SivaReaderPool(2)
+    val readers = files.map(f => {
+      val handle = pool.acquire(f)
+      val reader = handle.getReader
+      handle.close()
+      reader
+    })
+
+    pool.size() should be(2)
+    pool.getEvictionCount should be(1)
+    pool.getOpenCount should be(3)
+
+    val entry = readers(1).getIndex.getCompleteIndex.getEntries.get(0)
+    an[Exception] should be thrownBy IOUtils.toByteArray(readers(0).getEntry(entry))
+    IOUtils.toByteArray(readers(2).getEntry(entry)).length should be(100)
+
+    pool.close()
+    an[Exception] should be thrownBy IOUtils.toByteArray(readers(2).getEntry(entry))
+  }
+
+  it should "keep a reader open while a stream obtained from it is open" in {
+    val pool = new SivaReaderPool(1)
+    val handle = pool.acquire(files(0))
+    val entries = handle.getFilteredIndex.getEntries.asScala
+    val stream = handle.getEntry(entries.head)
+    val reader = handle.getReader
+    handle.close()
+
+    // evicts the reader of the first file, which is still in use
+    pool.acquire(files(1)).close()
+    pool.getEvictionCount should be(1)
+
+    IOUtils.toByteArray(stream).length should be(100)
+    stream.close()
+    an[Exception] should be thrownBy IOUtils.toByteArray(reader.getEntry(entries.head))
+
+    pool.close()
+  }
+
+  it should "release a reader even if closing a stream obtained from it fails" in {
+    val listener = new SivaListener {
+      override def entryClosed(sivaFileName: String, entry: IndexEntry,
+                               bytes: Long, durationNanos: Long): Unit =
+        throw new UncheckedIOException(new IOException("close failed"))
+    }
+    val pool = new SivaReaderPool(1, SivaReaderOptions.DEFAULT.withListener(listener))
+    def openStream(file: File): (SivaReader, IndexEntry, InputStream) = {
+      val handle = pool.acquire(file)
+      val entry = handle.getFilteredIndex.getEntries.get(0)
+      val stream = handle.getEntry(entry)
+      val reader = handle.getReader
+      handle.close()
+      (reader, entry, stream)
+    }
+
+    // the reader is evicted while the stream is open, and closed once the stream is
+    val (evicted, evictedEntry, evictedStream) = openStream(files(0))
+    pool.acquire(files(1)).close()
+    pool.getEvictionCount should be(1)
+    the[UncheckedIOException] thrownBy evictedStream.close() should have message
+      "java.io.IOException: close failed"
+    a[ClosedChannelException] should be thrownBy
+      IOUtils.toByteArray(evicted.getEntry(evictedEntry))
+
+    // the stream held the last reference, so invalidating the reader closes it at once
+    val (pooled, pooledEntry, pooledStream) = openStream(files(1))
+    an[UncheckedIOException] should be thrownBy pooledStream.close()
+    pool.invalidate(files(1))
+    a[ClosedChannelException] should be thrownBy
+      IOUtils.toByteArray(pooled.getEntry(pooledEntry))
+
+    pool.close()
+  }
+
+  it should "not give access to a reader once the handle is closed" in {
+    val pool = new SivaReaderPool(1)
+    val handle = pool.acquire(files(0))
+    handle.close()
+    handle.close()
+
+    an[IllegalStateException] should be thrownBy handle.getReader
+    pool.close()
+    an[IllegalStateException] should be thrownBy pool.acquire(files(0))
+  }
+}
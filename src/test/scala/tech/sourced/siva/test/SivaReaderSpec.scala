@@ -1,12 +1,20 @@
 package tech.sourced.siva.test
 
-import java.nio.file.attribute.PosixFilePermissions
-import java.util.concurrent.TimeUnit
+import java.io.{ByteArrayInputStream, File, InputStream, RandomAccessFile}
+import java.nio.ByteBuffer
+import java.nio.file.{FileSystems, Files, Paths}
+import java.nio.file.attribute.{FileTime, PosixFilePermissions}
+import java.util.concurrent.{Callable, ExecutionException, Executors, ForkJoinPool, TimeUnit}
+import java.util.zip.CRC32
 
+import org.apache.commons.io.{FileUtils, IOUtils}
 import org.scalatest._
 import org.scalatest.prop.TableDrivenPropertyChecks._
+import tech.sourced.siva.{EntrySink, Header, Index, IndexCache, IndexEntry, IndexVisitor,
+  SivaException, SivaReader, SivaReaderOptions, SivaWriter}
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable
 import scala.io.Source
 
 class SivaReaderSpec extends FlatSpec with Matchers {
@@ -46,6 +54,176 @@ class SivaReaderSpec extends FlatSpec with Matchers {
     }
   }
 
+  it should "be read correctly from a file with many blocks" in {
+    val file = SyntheticSiva.temp(blocks = 20, entriesPerBlock = 50, bodySize = 10)
+    val sivaReader = new SivaReader(file)
+
+    sivaReader.getIndex.getCompleteIndex.getEntries.size() should be(20 * 50)
+
+    val filteredIndex = sivaReader.getIndex.getFilteredIndex
+    filteredIndex.getEntries.asScala.map(_.getName) should contain theSameElementsAs
+      (0 until 50).map(SyntheticSiva.entryName)
+
+    Utils.checkEntries(filteredIndex.getEntries, sivaReader)
+
+    val last = filteredIndex.glob(SyntheticSiva.entryName(7)).asScala.head
+    IOUtils.toByteArray(sivaReader.getEntry(last)) should be(SyntheticSiva.entryContent(19, 7, 10))
+
+    sivaReader.close()
+  }
+
+  it should "fail if a footer points outside of the file" in {
+    val file = SyntheticSiva.temp(blocks = 2, entriesPerBlock = 5, bodySize = 10)
+    val raf = new RandomAccessFile(file, "rw")
+    raf.seek(raf.length() - 12)
+    raf.writeLong(raf.length() + 1)
+    raf.close()
+
+    val sivaReader = new SivaReader(file)
+    a[SivaException] should be thrownBy sivaReader.getIndex.getCompleteIndex
+    sivaReader.close()
+  }
+
+  it should "fail if the length of a name goes past the end of the index" in {
+    val file = SyntheticSiva.temp(blocks = 1, entriesPerBlock = 5, bodySize = 10)
+    val raf = new RandomAccessFile(file, "rw")
+    raf.seek(raf.length() - 20)
+    val index = new Array[Byte](raf.readLong().toInt)
+    raf.seek(raf.length() - 24 - index.length)
+    raf.readFully(index)
+    ByteBuffer.wrap(index).putInt(4, Int.MaxValue - 8)
+    val crc = new CRC32()
+    crc.update(index)
+    raf.seek(raf.length() - 24 - index.length)
+    raf.write(index)
+    raf.seek(raf.length() - 4)
+    raf.writeInt(crc.getValue.toInt)
+    raf.close()
+
+    val sivaReader = new SivaReader(file)
+    the[SivaException] thrownBy sivaReader.getIndex.getCompleteIndex should
+      have message s"Exception at file ${file.getName}: Wrong Index, index block is truncated"
+    sivaReader.close()
+  }
+
+  it should "be the same when the blocks are parsed in parallel" in {
+    val file = SyntheticSiva.temp(blocks = 30, entriesPerBlock = 20, bodySize = 10)
+    SyntheticSiva.append(file, firstBlock = 30, blocks = 10, entriesPerBlock = 10, bodySize = 10,
+      deleted = _ % 4 == 0)
+    val sivaReader = new SivaReader(file)
+    val pool = Executors.newFixedThreadPool(4)
+    def entries(index: Index): List[(String, Long, Long)] = index.getEntries.asScala
+      .map(e => (e.getName, e.getAbsStart, e.getSize)).toList
+
+    try {
+      entries(sivaReader.getIndex.getCompleteIndex(pool)) should be(
+        entries(sivaReader.getIndex.getCompleteIndex))
+      entries(sivaReader.getIndex.getFilteredIndex(pool)) should contain theSameElementsAs
+        entries(sivaReader.getIndex.getFilteredIndex)
+      entries(sivaReader.getIndex.getCompactIndex(pool)) should be(
+        entries(sivaReader.getIndex.getCompactIndex))
+    } finally {
+      pool.shutdown()
+    }
+
+    sivaReader.close()
+  }
+
+  it should "fail when a block parsed in parallel is corrupted" in {
+    val file = SyntheticSiva.temp(blocks = 10, entriesPerBlock = 5, bodySize = 10)
+    val sivaReader = new SivaReader(file)
+    val blockSize = file.length() / 10
+
+    // corrupt the name of the first entry of an index in the middle of the file
+    val raf = new RandomAccessFile(file, "rw")
+    raf.seek(blockSize * 5 + 5 * 10 + 4 + 4)
+    raf.write('X')
+    raf.close()
+
+    a[SivaException] should be thrownBy sivaReader.getIndex.getFilteredIndex(
+      ForkJoinPool.commonPool())
+    sivaReader.close()
+  }
+
+  "refresh" should "merge the blocks appended to a file" in {
+    val file = SyntheticSiva.temp(blocks = 3, entriesPerBlock = 20, bodySize = 10)
+    val sivaReader = new SivaReader(file)
+    val filteredIndex = sivaReader.getIndex.getFilteredIndex
+    val completeIndex = sivaReader.getIndex.getCompleteIndex
+
+    sivaReader.getIndex.refresh(filteredIndex) should be theSameInstanceAs filteredIndex
+
+    SyntheticSiva.append(file, firstBlock = 3, blocks = 2, entriesPerBlock = 10, bodySize = 10,
+      deleted = _ % 3 == 0)
+
+    val refreshedFiltered = sivaReader.getIndex.refresh(filteredIndex)
+    val refreshedComplete = sivaReader.getIndex.refresh(completeIndex)
+
+    val fresh = new SivaReader(file)
+    def entries(index: Index): List[(String, Long, Long)] = index.getEntries.asScala
+      .map(e => (e.getName, e.getAbsStart, e.getSize)).toList
+
+    entries(refreshedFiltered) should contain theSameElementsAs
+      entries(fresh.getIndex.getFilteredIndex)
+    entries(refreshedComplete) should be(entries(fresh.getIndex.getCompleteIndex))
+    refreshedFiltered.getEntries.size() should be(20 - 4)
+    filteredIndex.getEntries.size() should be(20)
+
+    Utils.checkEntries(refreshedFiltered.getEntries, sivaReader)
+
+    fresh.close()
+    sivaReader.close()
+  }
+
+  it should "read again the whole index if the file was rewritten" in {
+    val file = SyntheticSiva.temp(blocks = 3, entriesPerBlock = 20, bodySize = 10)
+    val sivaReader = new SivaReader(file)
+    val filteredIndex = sivaReader.getIndex.getFilteredIndex
+
+    SyntheticSiva.write(file, blocks = 2, entriesPerBlock = 30, bodySize = 15)
+
+    val refreshed = sivaReader.getIndex.refresh(filteredIndex)
+    refreshed.getEntries.size() should be(30)
+    Utils.checkEntries(refreshed.getEntries, sivaReader)
+
+    sivaReader.close()
+  }
+
+  "getEntry" should "find the latest version of an entry by its name" in {
+    val sivaReader = Utils.getReader("overwritten.siva")
+    val filteredIndex = sivaReader.getIndex.getFilteredIndex
+    val completeIndex = sivaReader.getIndex.getCompleteIndex
+
+    val entry = filteredIndex.getEntry("gopher.txt")
+    PosixFilePermissions.toString(entry.getFileMode) should be("rwxrwxrwx")
+    completeIndex.getEntry("gopher.txt").getAbsStart should be(entry.getAbsStart)
+
+    filteredIndex.getVersions("gopher.txt").asScala should be(entry :: Nil)
+
+    val versions = completeIndex.getVersions("gopher.txt").asScala
+    versions.size should be(2)
+    versions.head.getAbsStart should be(entry.getAbsStart)
+    versions.last.getAbsStart should be < entry.getAbsStart
+
+    filteredIndex.getEntry("missing.txt") should be(null)
+    completeIndex.getVersions("missing.txt") shouldBe empty
+
+    sivaReader.close()
+  }
+
+  it should "not find deleted entries in the filtered index" in {
+    val sivaReader = Utils.getReader("deleted.siva")
+
+    sivaReader.getIndex.getFilteredIndex.getEntry("gopher.txt") should be(null)
+
+    // the file is deleted later in the same block
+    val completeIndex = sivaReader.getIndex.getCompleteIndex
+    completeIndex.getEntry("gopher.txt") should be(completeIndex.getEntries.asScala.last)
+    completeIndex.getVersions("gopher.txt").size() should be(2)
+
+    sivaReader.close()
+  }
+
   "Glob" should "obtain filtered elements only" in {
     forAll(fixtures) { (filename: String, _: List[String], _: Boolean) =>
       val sivaReader = Utils.getReader(filename)
@@ -59,6 +237,150 @@ class SivaReaderSpec extends FlatSpec with Matchers {
     }
   }
 
+  it should "match the same entries as a PathMatcher" in {
+    val patterns = "*" :: "**" :: "numbers/*" :: "*/[12]" :: "letters/{a,c}" :: "numbers/?" ::
+      "**/[!a]" :: "*.txt" :: "gopher.txt" :: "{readme,todo}.*" :: "num*/**" :: Nil
+
+    forAll(fixtures) { (filename: String, _: List[String], _: Boolean) =>
+      val sivaReader = Utils.getReader(filename)
+      val completeIndex = sivaReader.getIndex.getCompleteIndex
+
+      patterns.foreach(pattern => {
+        val matcher = FileSystems.getDefault.getPathMatcher("glob:" + pattern)
+        val expected = completeIndex.getEntries.asScala
+          .filter(e => matcher.matches(Paths.get(e.getName)))
+
+        completeIndex.glob(pattern).asScala should contain theSameElementsAs expected
+      })
+
+      sivaReader.close()
+    }
+  }
+
+  it should "only return the entries with the literal prefix of the pattern" in {
+    val sivaReader = Utils.getReader("dirs.siva")
+    val filteredIndex = sivaReader.getIndex.getFilteredIndex
+
+    filteredIndex.glob("numbers/*").asScala.map(_.getName) should be(
+      "numbers/1" :: "numbers/2" :: "numbers/3" :: Nil)
+    filteredIndex.glob("letters/{a,c}").asScala.map(_.getName) should be(
+      "letters/a" :: "letters/c" :: Nil)
+    filteredIndex.glob("letters/a").asScala.map(_.getName) should be("letters/a" :: Nil)
+    filteredIndex.glob("letters").asScala shouldBe empty
+    filteredIndex.glob("z*").asScala shouldBe empty
+
+    sivaReader.close()
+  }
+
+  "CompactIndex" should "contain the same entries as the filtered index" in {
+    def fields(e: IndexEntry): Seq[Any] = Seq(e.getName, e.getFileMode, e.getModificationTime,
+      e.getIntStart, e.getAbsStart, e.getSize, e.getCrc32)
+
+    val files = fixtures.map(_._1).map(Utils.getFile) ++ List(
+      SyntheticSiva.temp(blocks = 20, entriesPerBlock = 50, bodySize = 10),
+      SyntheticSiva.temp(blocks = 1, entriesPerBlock = 0, bodySize = 10))
+
+    files.foreach(file => {
+      val sivaReader = new SivaReader(file)
+      val filteredIndex = sivaReader.getIndex.getFilteredIndex
+      val compactIndex = sivaReader.getIndex.getCompactIndex
+
+      compactIndex.getEntries.asScala.map(fields) should contain theSameElementsAs
+        filteredIndex.getEntries.asScala.map(fields)
+      compactIndex.getEntries.asScala.map(_.getName) shouldBe sorted
+
+      filteredIndex.getEntries.asScala.foreach(e => {
+        fields(compactIndex.getEntry(e.getName)) should be(fields(e))
+        compactIndex.getVersions(e.getName).asScala.map(fields) should be(fields(e) :: Nil)
+      })
+      compactIndex.getEntry("missing") should be(null)
+      compactIndex.getEntry("") should be(null)
+
+      ("*" :: "**" :: "**/*" :: "*.txt" :: "letters/?" :: "objects/0?/*" ::
+        "objects/1a/entry-0000002[0-9]" :: "numbers/1" :: Nil).foreach(pattern =>
+        compactIndex.glob(pattern).asScala.map(fields) should contain theSameElementsAs
+          filteredIndex.glob(pattern).asScala.map(fields))
+
+      Utils.checkEntries(compactIndex.getEntries, sivaReader)
+
+      sivaReader.close()
+    })
+  }
+
+  it should "be refreshed with the blocks appended to a file" in {
+    val file = SyntheticSiva.temp(blocks = 3, entriesPerBlock = 40, bodySize = 10)
+    val sivaReader = new SivaReader(file)
+    val compactIndex = sivaReader.getIndex.getCompactIndex
+
+    SyntheticSiva.append(file, firstBlock = 3, blocks = 2, entriesPerBlock = 20, bodySize = 10,
+      deleted = _ % 3 == 0)
+
+    val refreshed = sivaReader.getIndex.refresh(compactIndex)
+    val expected = sivaReader.getIndex.getFilteredIndex
+
+    refreshed.getEntries.asScala.map(e => (e.getName, e.getAbsStart)) should
+      contain theSameElementsAs expected.getEntries.asScala.map(e => (e.getName, e.getAbsStart))
+    refreshed.getEntries.size() should be(40 - 7)
+    compactIndex.getEntries.size() should be(40)
+
+    Utils.checkEntries(refreshed.getEntries, sivaReader)
+
+    sivaReader.close()
+  }
+
+  "visit" should "deliver the entries block by block from the newest one" in {
+    val file = SyntheticSiva.temp(blocks = 5, entriesPerBlock = 10, bodySize = 10)
+    val sivaReader = new SivaReader(file)
+
+    val entries = mutable.ArrayBuffer[(String, Long)]()
+    val blocks = mutable.ArrayBuffer[Long]()
+    var ended = 0
+    val completed = sivaReader.getIndex.visit(new IndexVisitor {
+      override def startIndexBlock(blockStart: Long, entryCount: Long): Boolean = {
+        entryCount should be(10)
+        blocks += blockStart
+        true
+      }
+
+      override def visitEntry(entry: IndexEntry): Boolean = {
+        entries += ((entry.getName, entry.getAbsStart))
+        true
+      }
+
+      override def endIndexBlock(): Boolean = {
+        ended += 1
+        true
+      }
+    })
+
+    completed should be(true)
+    ended should be(5)
+    blocks.head should be > blocks.last
+    blocks.last should be(0)
+    entries should be(sivaReader.getIndex.getCompleteIndex.getEntries.asScala
+      .map(e => (e.getName, e.getAbsStart)))
+
+    sivaReader.close()
+  }
+
+  it should "stop as soon as the visitor returns false" in {
+    val file = SyntheticSiva.temp(blocks = 5, entriesPerBlock = 10, bodySize = 10)
+    val sivaReader = new SivaReader(file)
+
+    var visited = 0
+    val completed = sivaReader.getIndex.visit(new IndexVisitor {
+      override def visitEntry(entry: IndexEntry): Boolean = {
+        visited += 1
+        entry.getName != SyntheticSiva.entryName(3)
+      }
+    })
+
+    completed should be(false)
+    visited should be(4)
+
+    sivaReader.close()
+  }
+
   "getEntry" should "read correctly a file into a siva file" in {
     forAll(fixtures) { (filename: String, elements: List[String], repeated: Boolean) =>
       val sivaReader = Utils.getReader(filename)
@@ -71,6 +393,324 @@ class SivaReaderSpec extends FlatSpec with Matchers {
     }
   }
 
+  it should "read entries concurrently from the same reader" in {
+    val sivaReader = Utils.getReader("overwritten.siva")
+    val entries = sivaReader.getIndex.getCompleteIndex.getEntries
+
+    val threads = 32
+    val pool = Executors.newFixedThreadPool(threads)
+    try {
+      val tasks = (1 to threads).map(_ => pool.submit(new Callable[Unit] {
+        override def call(): Unit = (1 to 50).foreach(_ => Utils.checkEntries(entries, sivaReader))
+      }))
+
+      tasks.foreach(t => try t.get() catch {
+        case e: ExecutionException => throw e.getCause
+      })
+    } finally {
+      pool.shutdown()
+    }
+
+    sivaReader.close()
+  }
+
+  it should "read correctly a file from a memory mapped siva file" in {
+    forAll(fixtures) { (filename: String, _: List[String], _: Boolean) =>
+      val sivaReader = Utils.getReader(filename,
+        SivaReaderOptions.DEFAULT.withMemoryMapped(true))
+
+      val entries = sivaReader.getIndex.getCompleteIndex.getEntries
+
+      Utils.checkEntries(entries, sivaReader)
+
+      sivaReader.close()
+    }
+  }
+
+  "getEntryBuffer" should "return a read-only buffer with the file content" in {
+    forAll(fixtures) { (filename: String, _: List[String], _: Boolean) =>
+      val readers = Utils.getReader(filename) ::
+        Utils.getReader(filename, SivaReaderOptions.DEFAULT.withMemoryMapped(true)) :: Nil
+
+      readers.foreach(sivaReader => {
+        sivaReader.getIndex.getCompleteIndex.getEntries.asScala.foreach(e => {
+          val buf = sivaReader.getEntryBuffer(e)
+          buf.isReadOnly should be(true)
+          buf.remaining() should be(e.getSize)
+
+          val crc = new CRC32()
+          crc.update(buf)
+          crc.getValue should be(e.getCrc32)
+        })
+
+        sivaReader.close()
+      })
+    }
+  }
+
+  "readEntryAsync" should "read the content of the entries without blocking" in {
+    forAll(fixtures) { (filename: String, _: List[String], _: Boolean) =>
+      val sivaReader = Utils.getReader(filename)
+      sivaReader.getIndex.getCompleteIndex.getEntries.asScala.foreach(e => {
+        val expected = IOUtils.toByteArray(sivaReader.getEntry(e))
+
+        val buf = sivaReader.readEntryAsync(e).get(10, TimeUnit.SECONDS)
+        buf.position() should be(0)
+        buf.remaining() should be(e.getSize)
+        buf should be(ByteBuffer.wrap(expected))
+
+        val dst = ByteBuffer.allocate(e.getSize.toInt + 10)
+        dst.position(5)
+        sivaReader.readEntryAsync(e, dst).get(10, TimeUnit.SECONDS) should be theSameInstanceAs dst
+        dst.position() should be(5 + e.getSize)
+        dst.flip()
+        dst.position(5)
+        dst should be(ByteBuffer.wrap(expected))
+      })
+
+      sivaReader.close()
+    }
+  }
+
+  "readEntriesAsync" should "read many entries in the requested order" in {
+    val file = SyntheticSiva.temp(blocks = 4, entriesPerBlock = 50, bodySize = 1000)
+    val sivaReader = new SivaReader(file)
+    val entries = sivaReader.getIndex.getCompleteIndex.getEntries.asScala
+    val requested = new scala.util.Random(42).shuffle(entries).take(120) ++ entries.take(3)
+
+    val contents = sivaReader.readEntriesAsync(requested.asJava).get(10, TimeUnit.SECONDS)
+    contents.size() should be(requested.size)
+    requested.zip(contents.asScala).foreach { case (e, buf) =>
+      val crc = new CRC32()
+      crc.update(buf)
+      crc.getValue should be(e.getCrc32)
+    }
+
+    sivaReader.close()
+  }
+
+  it should "fail if an entry can not be read" in {
+    val big = SyntheticSiva.temp(blocks = 1, entriesPerBlock = 50, bodySize = 1000)
+    val bigReader = new SivaReader(big)
+    val entries = bigReader.getIndex.getCompleteIndex.getEntries
+    bigReader.close()
+
+    // the entries of the bigger file are past the end of this one
+    val small = SyntheticSiva.temp(blocks = 1, entriesPerBlock = 1, bodySize = 10)
+    val sivaReader = new SivaReader(small)
+    val e = the[ExecutionException] thrownBy sivaReader.readEntriesAsync(entries)
+      .get(10, TimeUnit.SECONDS)
+    e.getCause shouldBe a[SivaException]
+    sivaReader.close()
+  }
+
+  "extractAll" should "pass the entries to the sink in the order they are stored" in {
+    forAll(fixtures) { (filename: String, elements: List[String], _: Boolean) =>
+      Seq(SivaReaderOptions.DEFAULT, SivaReaderOptions.DEFAULT.withMemoryMapped(true))
+        .foreach(options => {
+          val sivaReader = Utils.getReader(filename, options)
+          val entries = sivaReader.getIndex.getCompleteIndex.getEntries
+          val extracted = mutable.ArrayBuffer[IndexEntry]()
+          sivaReader.extractAll(entries, new EntrySink {
+            override def accept(entry: IndexEntry, content: InputStream): Unit = {
+              val os = new CrcOutputStream()
+              IOUtils.copy(content, os)
+              os.getValue should be(entry.getCrc32)
+              extracted += entry
+            }
+          })
+
+          extracted.map(_.getName).toSet should contain allElementsOf elements
+          extracted.map(_.getAbsStart) shouldBe sorted
+          sivaReader.close()
+        })
+    }
+  }
+
+  it should "read the entries of a file with many blocks" in {
+    val file = SyntheticSiva.temp(blocks = 8, entriesPerBlock = 100, bodySize = 10000)
+    val sivaReader = new SivaReader(file)
+    val entries = sivaReader.getIndex.getCompleteIndex.getEntries.asScala
+    val requested = new scala.util.Random(7).shuffle(entries).take(500)
+
+    var count = 0
+    sivaReader.extractAll(requested.asJava, new EntrySink {
+      override def accept(entry: IndexEntry, content: InputStream): Unit = {
+        val os = new CrcOutputStream()
+        IOUtils.copy(content, os)
+        os.getValue should be(entry.getCrc32)
+        count += 1
+      }
+    })
+
+    count should be(requested.size)
+    sivaReader.close()
+  }
+
+  it should "write the latest version of the entries to a directory" in {
+    val file = SyntheticSiva.temp(blocks = 3, entriesPerBlock = 20, bodySize = 100)
+    val target = Files.createTempDirectory("extracted").toFile
+    val sivaReader = new SivaReader(file)
+    val index = sivaReader.getIndex
+    sivaReader.extractAll(index.getCompleteIndex.getEntries, target)
+
+    index.getFilteredIndex.getEntries.asScala.foreach(e => {
+      val path = new File(target, e.getName).toPath
+      Files.readAllBytes(path) should be(
+        SyntheticSiva.entryContent(2, e.getName.takeRight(8).toInt, 100))
+      Files.getLastModifiedTime(path).toMillis should be(e.getModificationTime.toMillis)
+      if (FileSystems.getDefault.supportedFileAttributeViews().contains("posix")) {
+        Files.getPosixFilePermissions(path) should be(e.getFileMode)
+      }
+    })
+
+    sivaReader.close()
+    FileUtils.deleteDirectory(target)
+  }
+
+  it should "not write entries outside of the target directory" in {
+    val file = File.createTempFile("outside", ".siva")
+    file.deleteOnExit()
+    val writer = new SivaWriter(file)
+    writer.writeEntry(new Header("../outside.txt", PosixFilePermissions.fromString("rw-r--r--"),
+      FileTime.fromMillis(0)), new ByteArrayInputStream("outside".getBytes))
+    writer.close()
+
+    val target = Files.createTempDirectory("extracted").toFile
+    val sivaReader = new SivaReader(file)
+    a[SivaException] should be thrownBy sivaReader.extractAll(
+      sivaReader.getIndex.getFilteredIndex.getEntries, target)
+    new File(target.getParentFile, "outside.txt").exists() should be(false)
+
+    sivaReader.close()
+    FileUtils.deleteDirectory(target)
+  }
+
+  "getVerifiedEntry" should "read the content of the entries checking their CRC32" in {
+    forAll(fixtures) { (filename: String, _: List[String], _: Boolean) =>
+      val sivaReader = Utils.getReader(filename)
+      sivaReader.getIndex.getCompleteIndex.getEntries.asScala.foreach(e => {
+        IOUtils.toByteArray(sivaReader.getVerifiedEntry(e)) should be(
+          IOUtils.toByteArray(sivaReader.getEntry(e)))
+      })
+
+      sivaReader.close()
+    }
+  }
+
+  it should "fail at the end of an entry whose content is corrupted" in {
+    val file = SyntheticSiva.temp(blocks = 1, entriesPerBlock = 3, bodySize = 100)
+    val raf = new RandomAccessFile(file, "rw")
+    raf.seek(150)
+    val b = raf.read()
+    raf.seek(150)
+    raf.write(~b)
+    raf.close()
+
+    val sivaReader = new SivaReader(file)
+    val entries = sivaReader.getIndex.getCompleteIndex.getEntries.asScala
+
+    IOUtils.toByteArray(sivaReader.getVerifiedEntry(entries.head)).length should be(100)
+
+    val stream = sivaReader.getVerifiedEntry(entries(1))
+    stream.skip(99) should be(99)
+    stream.read() should be >= 0
+    val e = the[java.io.IOException] thrownBy stream.read()
+    e.getCause shouldBe a[SivaException]
+    e.getMessage should include(entries(1).getName)
+
+    sivaReader.close()
+  }
+
+  "verifyAll" should "check the content of all the entries" in {
+    val options = SivaReaderOptions.DEFAULT :: SivaReaderOptions.DEFAULT.withMemoryMapped(true) ::
+      Nil
+    val pool = Executors.newFixedThreadPool(4)
+    try {
+      options.foreach(o => {
+        forAll(fixtures) { (filename: String, _: List[String], _: Boolean) =>
+          val sivaReader = Utils.getReader(filename, o)
+          sivaReader.verifyAll(pool)
+          sivaReader.close()
+        }
+
+        val file = SyntheticSiva.temp(blocks = 5, entriesPerBlock = 20, bodySize = 100)
+        new SivaReader(file, o).verifyAll(pool)
+
+        val raf = new RandomAccessFile(file, "rw")
+        raf.seek(file.length() / 2)
+        val b = raf.read()
+        raf.seek(file.length() / 2)
+        raf.write(~b)
+        raf.close()
+
+        val sivaReader = new SivaReader(file, o)
+        a[SivaException] should be thrownBy sivaReader.verifyAll(pool)
+        sivaReader.close()
+      })
+    } finally {
+      pool.shutdown()
+    }
+  }
+
+  "IndexCache" should "share the indexes read by different readers" in {
+    val cache = new IndexCache(1024 * 1024)
+    val options = SivaReaderOptions.DEFAULT.withIndexCache(cache)
+
+    val first = Utils.getReader("overwritten.siva", options)
+    val index = first.getIndex.getFilteredIndex
+    first.close()
+
+    val second = Utils.getReader("overwritten.siva", options)
+    second.getIndex.getFilteredIndex should be theSameInstanceAs index
+    second.getIndex.getCompleteIndex shouldNot be theSameInstanceAs index
+    second.close()
+
+    cache.getHitCount should be(1)
+    cache.getMissCount should be(2)
+    cache.size() should be(2)
+  }
+
+  it should "read again the index of a modified file" in {
+    val file = File.createTempFile("cache-", ".siva")
+    file.deleteOnExit()
+    FileUtils.copyFile(Utils.getFile("overwritten.siva"), file)
+
+    val options = SivaReaderOptions.DEFAULT.withIndexCache(new IndexCache(1024 * 1024))
+
+    val first = new SivaReader(file, options)
+    val index = first.getIndex.getFilteredIndex
+    first.close()
+
+    file.setLastModified(file.lastModified() - 10000) should be(true)
+
+    val second = new SivaReader(file, options)
+    second.getIndex.getFilteredIndex shouldNot be theSameInstanceAs index
+    second.close()
+
+    options.getIndexCache.getMissCount should be(2)
+  }
+
+  it should "evict the least recently used indexes" in {
+    val cache = new IndexCache(2500)
+    val options = SivaReaderOptions.DEFAULT.withIndexCache(cache)
+
+    fixtures.foreach { case (filename, _, _) =>
+      val sivaReader = Utils.getReader(filename, options)
+      sivaReader.getIndex.getFilteredIndex
+      sivaReader.close()
+    }
+
+    cache.getEvictionCount should be > 0L
+    cache.getBytes should be <= cache.getMaxBytes
+
+    val sivaReader = Utils.getReader("overwritten.siva", options)
+    sivaReader.getIndex.getFilteredIndex
+    sivaReader.close()
+
+    cache.getHitCount should be(1)
+  }
+
   "file mode" should "change if the file has been overwritten" in {
     val sivaReader = Utils.getReader("overwritten.siva")
 
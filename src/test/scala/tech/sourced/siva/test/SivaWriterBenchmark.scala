@@ -0,0 +1,36 @@
+package tech.sourced.siva.test
+
+import java.io.File
+import java.nio.file.attribute.{FileTime, PosixFilePermissions}
+
+import org.scalameter.api._
+import org.scalameter.picklers.noPickler._
+import tech.sourced.siva.{Header, SivaWriter}
+
+/**
+  * Measures packing many small files in a single block of a siva file.
+  */
+object SivaWriterBenchmark extends Bench.ForkedTime {
+  private val mode = PosixFilePermissions.fromString("rw-r--r--")
+  private val modTime = FileTime.fromMillis(1502116728928L)
+
+  val entries: Gen[Int] = Gen.exponential("entries")(1000, 100000, 10)
+
+  performance of "Write" in {
+    measure method "SmallEntries" in {
+      using(entries) in {
+        n => {
+          val file = File.createTempFile("writer-benchmark-", ".siva")
+          val writer = new SivaWriter(file)
+          (0 until n).foreach(e => {
+            writer.writeHeader(new Header(SyntheticSiva.entryName(e), mode, modTime))
+            writer.write(SyntheticSiva.entryContent(0, e, 1024))
+          })
+
+          writer.close()
+          file.delete()
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,540 @@
+package tech.sourced.siva.test
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, File, InputStream, RandomAccessFile}
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.attribute.{FileTime, PosixFilePermissions}
+import java.util.concurrent.{ExecutionException, ForkJoinPool}
+
+import org.apache.commons.io.{FileUtils, IOUtils}
+import org.scalatest._
+import tech.sourced.siva.{EntrySink, Header, IndexEntry, IndexVisitor, SivaCompactor,
+  SivaException, SivaListener, SivaReader, SivaReaderOptions, SivaWriter, SivaWriterOptions}
+
+import scala.collection.JavaConverters._
+
+class SivaWriterSpec extends FlatSpec with Matchers {
+  private val mode = PosixFilePermissions.fromString("rw-r--r--")
+  private val modTime = FileTime.fromMillis(1502116728928L)
+
+  private def temp(): File = {
+    val file = File.createTempFile("writer-", ".siva")
+    file.deleteOnExit()
+    file
+  }
+
+  private def content(reader: SivaReader, name: String): String = {
+    val entry = reader.getIndex.getFilteredIndex.getEntry(name)
+    new String(IOUtils.toByteArray(reader.getEntry(entry)))
+  }
+
+  "SivaWriter" should "write the same bytes as the reference implementation" in {
+    ("basic.siva" :: "dirs.siva" :: Nil).foreach(filename => {
+      val original = Utils.getFile(filename)
+      val reader = new SivaReader(original)
+      val file = temp()
+      val writer = new SivaWriter(file)
+
+      reader.getIndex.getCompleteIndex.getEntries.asScala.foreach(e => {
+        writer.writeEntry(new Header(e.getName, e.getFileMode, e.getModificationTime),
+          reader.getEntry(e))
+      })
+
+      writer.close()
+      reader.close()
+
+      FileUtils.readFileToByteArray(file) should be(FileUtils.readFileToByteArray(original))
+    })
+  }
+
+  it should "write a block every time it is flushed" in {
+    val file = temp()
+    val writer = new SivaWriter(file)
+    (0 until 3).foreach(block => {
+      (0 until 4).foreach(e => {
+        writer.writeHeader(new Header(SyntheticSiva.entryName(e), mode, modTime))
+        writer.write(s"block $block entry $e".getBytes)
+      })
+
+      writer.flush()
+    })
+
+    writer.flush()
+    writer.close()
+
+    val reader = new SivaReader(file)
+    reader.getIndex.getCompleteIndex.getEntries.size() should be(12)
+    reader.getIndex.getFilteredIndex.getEntries.size() should be(4)
+    content(reader, SyntheticSiva.entryName(1)) should be("block 2 entry 1")
+    reader.verifyAll(ForkJoinPool.commonPool())
+
+    val entry = reader.getIndex.getFilteredIndex.getEntry(SyntheticSiva.entryName(0))
+    entry.getFileMode should be(mode)
+    entry.getModificationTime should be(modTime)
+    reader.close()
+  }
+
+  it should "append blocks to an existing siva file" in {
+    val file = temp()
+    FileUtils.copyFile(Utils.getFile("basic.siva"), file)
+
+    val writer = new SivaWriter(file, true)
+    writer.writeEntry(new Header("gopher.txt", mode, modTime),
+      new ByteArrayInputStream("new gopher".getBytes))
+    writer.writeEntry(new Header("new.txt", mode, modTime),
+      new ByteArrayInputStream("new file".getBytes))
+    writer.close()
+
+    val reader = new SivaReader(file)
+    reader.getIndex.getFilteredIndex.getEntries.asScala.map(_.getName) should
+      contain theSameElementsAs ("gopher.txt" :: "readme.txt" :: "todo.txt" :: "new.txt" :: Nil)
+    content(reader, "gopher.txt") should be("new gopher")
+    content(reader, "readme.txt") should be(content(Utils.getReader("basic.siva"), "readme.txt"))
+    reader.verifyAll(ForkJoinPool.commonPool())
+    reader.close()
+  }
+
+  it should "update a siva file appending new versions and deleted entries" in {
+    val file = SyntheticSiva.temp(blocks = 3, entriesPerBlock = 20, bodySize = 10)
+    val before = FileUtils.readFileToByteArray(file)
+
+    val writer = new SivaWriter(file, true)
+    (0 until 20 by 2).foreach(e => writer.writeEntry(
+      new Header(SyntheticSiva.entryName(e), mode, modTime),
+      new ByteArrayInputStream(s"updated $e".getBytes)))
+    (1 until 20 by 4).foreach(e => writer.writeDelete(SyntheticSiva.entryName(e)))
+    writer.writeEntry(new Header("added", mode, modTime),
+      new ByteArrayInputStream("added".getBytes))
+    writer.close()
+
+    val after = FileUtils.readFileToByteArray(file)
+    after.take(before.length) should be(before)
+
+    val reader = new SivaReader(file)
+    val filtered = reader.getIndex.getFilteredIndex
+    val deleted = (1 until 20 by 4).map(SyntheticSiva.entryName)
+    filtered.getEntries.asScala.map(_.getName) should contain theSameElementsAs
+      ((0 until 20).map(SyntheticSiva.entryName).filterNot(deleted.contains) :+ "added")
+    deleted.foreach(name => {
+      filtered.getEntry(name) should be(null)
+      reader.getIndex.getCompleteIndex.getEntry(name).getSize should be(0)
+      reader.getIndex.getCompleteIndex.getVersions(name).size() should be(4)
+    })
+
+    content(reader, SyntheticSiva.entryName(4)) should be("updated 4")
+    IOUtils.toByteArray(reader.getEntry(filtered.getEntry(SyntheticSiva.entryName(3)))) should
+      be(SyntheticSiva.entryContent(2, 3, 10))
+    reader.verifyAll(ForkJoinPool.commonPool())
+    reader.close()
+  }
+
+  it should "not write content for a deleted entry" in {
+    val writer = new SivaWriter(temp())
+    writer.writeDelete("deleted")
+    an[IllegalStateException] should be thrownBy writer.write("content".getBytes)
+    writer.close()
+  }
+
+  "SivaCompactor" should "keep only the live entries in a single block" in {
+    val files = ("basic.siva" :: "deleted.siva" :: "dirs.siva" :: "overwritten.siva" :: Nil)
+      .map(Utils.getFile) :+ SyntheticSiva.append(
+      SyntheticSiva.temp(blocks = 10, entriesPerBlock = 20, bodySize = 100),
+      firstBlock = 10, blocks = 1, entriesPerBlock = 10, bodySize = 100, deleted = _ % 2 == 0)
+
+    files.foreach(original => {
+      val file = temp()
+      FileUtils.copyFile(original, file)
+      SivaCompactor.compact(file)
+
+      val before = new SivaReader(original)
+      val after = new SivaReader(file)
+      val live = before.getIndex.getFilteredIndex
+      val compacted = after.getIndex.getCompleteIndex
+
+      compacted.getEntries.asScala.map(_.getName) should contain theSameElementsAs
+        live.getEntries.asScala.map(_.getName)
+      compacted.getEntries.asScala.foreach(e => {
+        IOUtils.toByteArray(after.getEntry(e)) should be(
+          IOUtils.toByteArray(before.getEntry(live.getEntry(e.getName))))
+      })
+
+      var blocks = 0
+      after.getIndex.visit(new IndexVisitor {
+        override def visitEntry(entry: IndexEntry): Boolean = true
+
+        override def endIndexBlock(): Boolean = {
+          blocks += 1
+          true
+        }
+      })
+      blocks should be(1)
+      file.length() should be <= original.length()
+
+      before.close()
+      after.close()
+    })
+  }
+
+  it should "leave the original file unchanged if it is not a valid siva file" in {
+    val file = temp()
+    FileUtils.writeStringToFile(file, "this is not a siva file, but it is long enough")
+
+    a[SivaException] should be thrownBy SivaCompactor.compact(file)
+    FileUtils.readFileToString(file) should be("this is not a siva file, but it is long enough")
+    file.getParentFile.listFiles().map(_.getName)
+      .filter(_.startsWith("." + file.getName)) shouldBe empty
+  }
+
+  it should "keep the permissions of the original file" in {
+    val file = temp()
+    FileUtils.copyFile(Utils.getFile("overwritten.siva"), file)
+    val perms = PosixFilePermissions.fromString("rw-r-----")
+    Files.setPosixFilePermissions(file.toPath, perms)
+
+    SivaCompactor.compact(file)
+    Files.getPosixFilePermissions(file.toPath) should be(perms)
+  }
+
+  it should "not replace the original file if a block is appended while compacting" in {
+    val file = temp()
+    FileUtils.copyFile(Utils.getFile("overwritten.siva"), file)
+    val appendBlock = new SivaListener {
+      override def indexLoaded(sivaFileName: String, durationNanos: Long, blocks: Long,
+                               entries: Long, bytes: Long): Unit = {
+        val writer = new SivaWriter(file, true)
+        writer.writeHeader(new Header("appended", mode, modTime))
+        writer.write("appended while compacting".getBytes)
+        writer.close()
+      }
+    }
+
+    the[SivaException] thrownBy SivaCompactor.compact(file,
+      SivaReaderOptions.DEFAULT.withListener(appendBlock)) should have message
+      s"Exception at file ${file.getName}: Siva file changed while it was compacted."
+
+    val reader = new SivaReader(file)
+    content(reader, "appended") should be("appended while compacting")
+    reader.close()
+    file.getParentFile.listFiles().map(_.getName)
+      .filter(_.startsWith("." + file.getName)) shouldBe empty
+  }
+
+  it should "refuse to compact a file into itself" in {
+    val file = temp()
+    FileUtils.copyFile(Utils.getFile("overwritten.siva"), file)
+    val original = FileUtils.readFileToByteArray(file)
+
+    an[IllegalArgumentException] should be thrownBy SivaCompactor.compact(file, file)
+    an[IllegalArgumentException] should be thrownBy SivaCompactor.compact(file,
+      new File(file.getParentFile, "." + File.separator + file.getName))
+    FileUtils.readFileToByteArray(file) should be(original)
+  }
+
+  it should "write entries bigger than its buffer" in {
+    val big = Array.tabulate[Byte](3 * 1024 * 1024 + 7)(i => (i * 13).toByte)
+    val file = temp()
+    val writer = new SivaWriter(file)
+    writer.writeHeader(new Header("small", mode, modTime))
+    writer.write("small".getBytes)
+    writer.writeHeader(new Header("buffer", mode, modTime))
+    writer.write(ByteBuffer.wrap(big))
+    writer.writeEntry(new Header("stream", mode, modTime), new ByteArrayInputStream(big))
+    writer.close()
+
+    val reader = new SivaReader(file)
+    content(reader, "small") should be("small")
+    IOUtils.toByteArray(reader.getVerifiedEntry(
+      reader.getIndex.getFilteredIndex.getEntry("buffer"))) should be(big)
+    IOUtils.toByteArray(reader.getVerifiedEntry(
+      reader.getIndex.getFilteredIndex.getEntry("stream"))) should be(big)
+    reader.close()
+  }
+
+  it should "not append to a file that is not a valid siva file" in {
+    val file = temp()
+    FileUtils.writeStringToFile(file, "this is not a siva file, but it is long enough")
+
+    a[SivaException] should be thrownBy new SivaWriter(file, true)
+  }
+
+  it should "not write content before a header" in {
+    val writer = new SivaWriter(temp())
+    an[IllegalStateException] should be thrownBy writer.write("content".getBytes)
+    writer.close()
+  }
+
+  private val compressed = SivaWriterOptions.DEFAULT.withCompression(true)
+
+  private def text(lines: Int): Array[Byte] =
+    (0 until lines).map(i => s"line $i of a very repetitive text file\n").mkString.getBytes
+
+  it should "compress the entries that are worth it" in {
+    val random = new Array[Byte](200 * 1024)
+    new scala.util.Random(42).nextBytes(random)
+    val small = text(10)
+    val big = text(100000)
+
+    val file = temp()
+    val writer = new SivaWriter(file, compressed.withMinCompressedSize(small.length + 1))
+    writer.writeEntry(new Header("small", mode, modTime), new ByteArrayInputStream(small))
+    writer.writeEntry(new Header("random", mode, modTime), new ByteArrayInputStream(random))
+    writer.writeEntry(new Header("big", mode, modTime), new ByteArrayInputStream(big))
+    writer.writeHeader(new Header("buffer", mode, modTime))
+    writer.write(ByteBuffer.wrap(big))
+    writer.writeDelete("small")
+    writer.close()
+
+    val reader = new SivaReader(file)
+    val index = reader.getIndex.getCompleteIndex
+    index.getEntry("small").isCompressed should be(false)
+    index.getVersions("small").get(1).isCompressed should be(false)
+    index.getEntry("random").isCompressed should be(false)
+    index.getEntry("random").getSize should be(random.length)
+    index.getEntry("big").isCompressed should be(true)
+    index.getEntry("big").getSize should be < (big.length / 10).toLong
+    index.getEntry("buffer").isCompressed should be(true)
+
+    IOUtils.toByteArray(reader.getEntry(index.getVersions("small").get(1))) should be(small)
+    IOUtils.toByteArray(reader.getVerifiedEntry(index.getEntry("random"))) should be(random)
+    ("big" :: "buffer" :: Nil).foreach(name => {
+      IOUtils.toByteArray(reader.getVerifiedEntry(index.getEntry(name))) should be(big)
+    })
+    reader.verifyAll(ForkJoinPool.commonPool())
+    reader.close()
+  }
+
+  it should "keep at most 64KB of an entry in memory whatever the minimum size is" in {
+    val small = text(1000)
+    val big = text(100000)
+    val file = temp()
+    // a buffer of the minimum size would not fit in the heap
+    val writer = new SivaWriter(file, compressed.withMinCompressedSize(Int.MaxValue))
+    writer.writeEntry(new Header("small", mode, modTime), new ByteArrayInputStream(small))
+    writer.writeEntry(new Header("big", mode, modTime), new ByteArrayInputStream(big))
+    writer.close()
+
+    val reader = new SivaReader(file)
+    val index = reader.getIndex.getFilteredIndex
+    small.length should be < 64 * 1024
+    index.getEntry("small").isCompressed should be(false)
+    index.getEntry("big").isCompressed should be(true)
+    IOUtils.toByteArray(reader.getVerifiedEntry(index.getEntry("small"))) should be(small)
+    IOUtils.toByteArray(reader.getVerifiedEntry(index.getEntry("big"))) should be(big)
+    reader.close()
+  }
+
+  it should "decompress the entries transparently on every read path" in {
+    val big = text(50000)
+    val file = temp()
+    val writer = new SivaWriter(file, compressed)
+    (0 until 3).foreach(i =>
+      writer.writeEntry(new Header(s"file$i", mode, modTime), new ByteArrayInputStream(big)))
+    writer.close()
+
+    Seq(SivaReaderOptions.DEFAULT, SivaReaderOptions.DEFAULT.withMemoryMapped(true))
+      .foreach(options => {
+        val reader = new SivaReader(file, options)
+        val entries = reader.getIndex.getFilteredIndex.getEntries
+        entries.asScala.foreach(_.isCompressed should be(true))
+        val entry = entries.get(0)
+
+        IOUtils.toByteArray(reader.getEntry(entry)) should be(big)
+        val buffer = reader.getEntryBuffer(entry)
+        val bytes = new Array[Byte](buffer.remaining())
+        buffer.get(bytes)
+        bytes should be(big)
+
+        val async = reader.readEntryAsync(entry).get()
+        async.remaining() should be(big.length)
+        async should be(ByteBuffer.wrap(big))
+        val dst = ByteBuffer.allocate(big.length + 1)
+        reader.readEntryAsync(entry, dst).get().position() should be(big.length)
+        reader.readEntriesAsync(entries).get().asScala
+          .foreach(_ should be(ByteBuffer.wrap(big)))
+
+        val extracted = new ByteArrayOutputStream()
+        reader.extractAll(entries, new EntrySink {
+          override def accept(entry: IndexEntry, content: InputStream): Unit =
+            IOUtils.copy(content, extracted)
+        })
+        extracted.size() should be(3 * big.length)
+        reader.close()
+      })
+  }
+
+  private def readIntoSmallBuffer(entryCompressed: Boolean): Unit = {
+    val content = text(200)
+    val file = temp()
+    val writer = new SivaWriter(file, compressed.withCompression(entryCompressed))
+    writer.writeEntry(new Header("entry", mode, modTime), new ByteArrayInputStream(content))
+    writer.close()
+
+    val reader = new SivaReader(file)
+    val entry = reader.getIndex.getFilteredIndex.getEntry("entry")
+    entry.isCompressed should be(entryCompressed)
+    content.length should be > 5000
+
+    // the mistake is reported by the future, not by the call
+    val future = reader.readEntryAsync(entry, ByteBuffer.allocate(5000))
+    val e = the[ExecutionException] thrownBy future.get()
+    e.getCause shouldBe a[SivaException]
+    e.getCause.getMessage should be(s"Exception at file ${file.getName}: " +
+      s"Buffer has 5000 bytes remaining, entry entry has ${content.length} bytes")
+    reader.close()
+  }
+
+  it should "fail the future when an uncompressed entry does not fit in the buffer" in {
+    readIntoSmallBuffer(entryCompressed = false)
+  }
+
+  it should "fail the future when a compressed entry does not fit in the buffer" in {
+    readIntoSmallBuffer(entryCompressed = true)
+  }
+
+  it should "keep the compressed flag in compact and sidecar indexes" in {
+    val file = temp()
+    val writer = new SivaWriter(file, compressed)
+    writer.writeEntry(new Header("text", mode, modTime), new ByteArrayInputStream(text(1000)))
+    writer.writeEntry(new Header("tiny", mode, modTime), new ByteArrayInputStream(text(1)))
+    writer.close()
+
+    val sidecar = new File(file.getPath + ".idx")
+    sidecar.deleteOnExit()
+    (0 until 2).foreach(_ => {
+      val reader = new SivaReader(file, SivaReaderOptions.DEFAULT.withSidecarIndex(true))
+      Seq(reader.getIndex.getFilteredIndex, reader.getIndex.getCompactIndex).foreach(i => {
+        i.getEntry("text").isCompressed should be(true)
+        i.getEntry("tiny").isCompressed should be(false)
+      })
+      IOUtils.toByteArray(reader.getEntry(
+        reader.getIndex.getFilteredIndex.getEntry("text"))) should be(text(1000))
+      reader.close()
+    })
+    sidecar.exists() should be(true)
+  }
+
+  it should "copy compressed entries as they are stored" in {
+    val file = temp()
+    val writer = new SivaWriter(file, compressed)
+    writer.writeEntry(new Header("text", mode, modTime), new ByteArrayInputStream(text(1000)))
+    writer.close()
+
+    val copy = temp()
+    val reader = new SivaReader(file)
+    val copier = new SivaWriter(copy)
+    copier.copyEntry(reader, reader.getIndex.getFilteredIndex.getEntry("text"))
+    copier.close()
+    reader.close()
+
+    val copied = new SivaReader(copy)
+    val entry = copied.getIndex.getFilteredIndex.getEntry("text")
+    entry.isCompressed should be(true)
+    IOUtils.toByteArray(copied.getVerifiedEntry(entry)) should be(text(1000))
+    copied.close()
+  }
+
+  private def writeBlocks(file: File, options: SivaWriterOptions): Unit = {
+    val writer = new SivaWriter(file, options)
+    (0 until 20).foreach(block => {
+      (0 until 50).foreach(e => {
+        if ((block + e) % 7 == 0) {
+          writer.writeHeader(new Header(SyntheticSiva.entryName(e), mode, modTime))
+          writer.write(s"block $block entry $e".getBytes)
+        }
+      })
+
+      if (block % 5 == 4) {
+        writer.writeDelete(SyntheticSiva.entryName(block))
+      }
+
+      writer.flush()
+    })
+    writer.close()
+  }
+
+  it should "write name tables that are used to find single entries" in {
+    val plain = temp()
+    writeBlocks(plain, SivaWriterOptions.DEFAULT)
+    val withTable = temp()
+    writeBlocks(withTable, SivaWriterOptions.DEFAULT.withNameTable(true))
+    withTable.length() should be > plain.length()
+
+    val expected = new SivaReader(plain)
+    val reader = new SivaReader(withTable)
+    reader.verifyAll(ForkJoinPool.commonPool())
+    val filtered = reader.getIndex.getFilteredIndex
+    filtered.getEntries.size() should be(expected.getIndex.getFilteredIndex.getEntries.size())
+
+    (0 until 60).map(SyntheticSiva.entryName).foreach(name => {
+      val entry = reader.getIndex.findEntry(name)
+      val plainEntry = expected.getIndex.findEntry(name)
+      val filteredEntry = filtered.getEntry(name)
+      if (filteredEntry == null) {
+        entry should be(null)
+        plainEntry should be(null)
+      } else {
+        entry.getAbsStart should be(filteredEntry.getAbsStart)
+        plainEntry.getName should be(name)
+        IOUtils.toByteArray(reader.getEntry(entry)) should be(
+          IOUtils.toByteArray(expected.getEntry(plainEntry)))
+      }
+    })
+
+    expected.close()
+    reader.close()
+  }
+
+  it should "ignore a name table stored at the end of the content of an entry" in {
+    val names = "a" :: "b" :: "c" :: Nil
+    val withTable = temp()
+    val writer = new SivaWriter(withTable, SivaWriterOptions.DEFAULT.withNameTable(true))
+    names.foreach(n => writer.writeEntry(new Header(n, mode, modTime),
+      new ByteArrayInputStream(n.getBytes)))
+    writer.close()
+
+    // the table ends right before the index, with its length at the start of its trailer
+    val raf = new RandomAccessFile(withTable, "r")
+    raf.seek(raf.length() - 20)
+    val startOfIndex = raf.length() - 24 - raf.readLong()
+    raf.seek(startOfIndex - 16)
+    val table = new Array[Byte](raf.readInt() + 16)
+    raf.seek(startOfIndex - table.length)
+    raf.readFully(table)
+    raf.close()
+
+    // same names and offsets in the index, in a different order
+    val file = temp()
+    val plain = new SivaWriter(file)
+    plain.writeEntry(new Header("c", mode, modTime), new ByteArrayInputStream("c".getBytes))
+    plain.writeEntry(new Header("b", mode, modTime), new ByteArrayInputStream("b".getBytes))
+    plain.writeEntry(new Header("a", mode, modTime), new ByteArrayInputStream(table))
+    plain.close()
+
+    val reader = new SivaReader(file)
+    names.foreach(n => reader.getIndex.findEntry(n).getAbsStart should be(
+      reader.getIndex.getFilteredIndex.getEntry(n).getAbsStart))
+    reader.close()
+  }
+
+  it should "find entries in files with and without name tables" in {
+    val file = temp()
+    FileUtils.copyFile(Utils.getFile("basic.siva"), file)
+    val writer = new SivaWriter(file,
+      SivaWriterOptions.DEFAULT.withAppend(true).withNameTable(true))
+    writer.writeEntry(new Header("new.txt", mode, modTime),
+      new ByteArrayInputStream("new".getBytes))
+    writer.writeDelete("todo.txt")
+    writer.close()
+
+    Seq(SivaReaderOptions.DEFAULT, SivaReaderOptions.DEFAULT.withMemoryMapped(true))
+      .foreach(options => {
+        val reader = new SivaReader(file, options)
+        IOUtils.toByteArray(reader.getEntry(reader.getIndex.findEntry("new.txt"))) should be(
+          "new".getBytes)
+        reader.getIndex.findEntry("gopher.txt").getName should be("gopher.txt")
+        reader.getIndex.findEntry("todo.txt") should be(null)
+        reader.getIndex.findEntry("missing.txt") should be(null)
+        reader.close()
+      })
+  }
+}
@@ -0,0 +1,112 @@
+package tech.sourced.siva.test
+
+import java.io.{BufferedOutputStream, ByteArrayOutputStream, DataOutputStream, File,
+  FileOutputStream}
+import java.nio.charset.StandardCharsets
+import java.util.zip.CRC32
+
+/**
+  * Generator of synthetic siva files, written following the siva specification
+  * without using the library, so they can be used to test and benchmark it.
+  */
+object SyntheticSiva {
+  private val IndexFooterSize = 24
+  private val Signature = "IBA".getBytes(StandardCharsets.US_ASCII)
+  private val DefaultMode = 420 // rw-r--r--
+  private val ModTime = 1502116728928289494L
+
+  /**
+    * Name of the given entry. All the blocks contain the same names, so every block
+    * overwrites the entries of the previous ones.
+    */
+  def entryName(entry: Int): String = f"objects/$entry%02x/entry-$entry%08d"
+
+  /**
+    * Content of the given entry in the given block.
+    */
+  def entryContent(block: Int, entry: Int, bodySize: Int): Array[Byte] =
+    Array.tabulate[Byte](bodySize)(i => (block * 31 + entry * 7 + i).toByte)
+
+  /**
+    * Writes a siva file with the given number of blocks, entries per block and
+    * bytes per entry.
+    */
+  def write(file: File, blocks: Int, entriesPerBlock: Int, bodySize: Int): File = {
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))
+    try {
+      (0 until blocks).foreach(b => writeBlock(out, b, entriesPerBlock, bodySize, _ => false))
+    } finally {
+      out.close()
+    }
+
+    file
+  }
+
+  /**
+    * Appends blocks to a siva file, numbering them from the given first block.
+    * Entries for which deleted returns true are written as deleted.
+    */
+  def append(file: File, firstBlock: Int, blocks: Int, entriesPerBlock: Int, bodySize: Int,
+             deleted: Int => Boolean = _ => false): File = {
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))
+    try {
+      (firstBlock until firstBlock + blocks).foreach(b =>
+        writeBlock(out, b, entriesPerBlock, bodySize, deleted))
+    } finally {
+      out.close()
+    }
+
+    file
+  }
+
+  /**
+    * Creates a temporary siva file that will be deleted on exit.
+    */
+  def temp(blocks: Int, entriesPerBlock: Int, bodySize: Int): File = {
+    val file = File.createTempFile(s"synthetic-$blocks-$entriesPerBlock-$bodySize-", ".siva")
+    file.deleteOnExit()
+    write(file, blocks, entriesPerBlock, bodySize)
+  }
+
+  private def writeBlock(out: DataOutputStream, block: Int, entries: Int, bodySize: Int,
+                         deleted: Int => Boolean): Unit = {
+    val indexBytes = new ByteArrayOutputStream()
+    val index = new DataOutputStream(indexBytes)
+    index.write(Signature)
+    index.writeByte(1)
+
+    var offset = 0L
+    (0 until entries).foreach(e => {
+      val content =
+        if (deleted(e)) Array.empty[Byte] else entryContent(block, e, bodySize)
+      out.write(content)
+
+      val crc = new CRC32()
+      crc.update(content)
+
+      val name = entryName(e).getBytes(StandardCharsets.UTF_8)
+      index.writeInt(name.length)
+      index.write(name)
+      index.writeInt(DefaultMode)
+      index.writeLong(ModTime)
+      index.writeLong(offset)
+      index.writeLong(content.length)
+      index.writeInt(crc.getValue.toInt)
+      index.writeInt(if (deleted(e)) 1 else 0)
+
+      offset += content.length
+    })
+
+    index.flush()
+    val indexContent = indexBytes.toByteArray
+    out.write(indexContent)
+
+    val indexCrc = new CRC32()
+    indexCrc.update(indexContent)
+
+    out.writeInt(entries)
+    out.writeLong(indexContent.length)
+    out.writeLong(offset + indexContent.length + IndexFooterSize)
+    out.writeInt(indexCrc.getValue.toInt)
+  }
+}
@@ -4,18 +4,26 @@ import java.io.File
 
 import org.apache.commons.io.IOUtils
 import org.scalatest.{FlatSpec, Matchers}
-import tech.sourced.siva.{IndexEntry, SivaReader}
+import tech.sourced.siva.{IndexEntry, SivaReader, SivaReaderOptions}
 
 import scala.collection.JavaConverters._
 
 object Utils extends FlatSpec with Matchers {
   def getReader(filename: String): SivaReader = {
+    new SivaReader(getFile(filename))
+  }
+
+  def getReader(filename: String, options: SivaReaderOptions): SivaReader = {
+    new SivaReader(getFile(filename), options)
+  }
+
+  def getFile(filename: String): File = {
     val resourceUrl = getClass.getResource("/" + filename)
     val file = new File(resourceUrl.toURI)
 
     file.exists() should be(true)
 
-    new SivaReader(file)
+    file
   }
 
   def checkEntries(entries: java.util.List[IndexEntry], reader: SivaReader): Unit = {